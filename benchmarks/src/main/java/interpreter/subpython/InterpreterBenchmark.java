@@ -0,0 +1,49 @@
+package interpreter.subpython;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Execution alone, on statements parsed and resolved ahead of time. For the VM this
+// includes compiling to bytecode.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"small", "medium", "large"})
+    public String program;
+
+    @Param({"tree", "vm"})
+    public String engine;
+
+    private Runnable prepared;
+
+    @Setup
+    public void setUp() {
+        Programs.silence();
+        prepared = Programs.prepare(engine, Programs.source(program));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Programs.restore();
+    }
+
+    @Benchmark
+    public void interpret() {
+        prepared.run();
+    }
+}
@@ -0,0 +1,165 @@
+package interpreter.subpython;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+// Source programs shared by the benchmarks, and a driver that runs one through the
+// pipeline without Subpython.run's tokens.txt dump.
+final class Programs {
+    private Programs() {}
+
+    static final String SMALL = """
+            def factorial(n):
+                if n == 0:
+                    return 1
+                else:
+                    return factorial(n-1) * n
+
+            def fabonacci(n):
+                if n == 0:
+                    return 0
+                elif n == 1:
+                    return 1
+                else:
+                    return fabonacci(n-1) + fabonacci(n-2)
+
+            print(factorial(5))
+            for i in range(10):
+                print(fabonacci(i))
+
+            str = "hello"
+            str[1] = "1"
+            print(str + " world")
+            """;
+
+    static final String FIB = """
+            def fib(n):
+                if n < 2:
+                    return n
+                return fib(n - 1) + fib(n - 2)
+            print(fib(20))
+            """;
+
+    static final String NESTED_LOOPS = """
+            total = 0
+            for i in range(300):
+                for j in range(300):
+                    total = total + i * j
+            print(total)
+            """;
+
+    static final String STRING_CONCAT = """
+            s = ""
+            for i in range(2000):
+                s = s + "x"
+            print(s[0:10])
+            """;
+
+    // Rewrites a string in place, bounded by its length: linear as long as
+    // reading the string for len and the comparison doesn't make the next
+    // write copy it.
+    static final String STRING_REWRITE = """
+            s = "x"
+            for i in range(14):
+                s = s + s
+            i = 0
+            while i < len(s):
+                s[i] = "y"
+                i = i + 1
+            print(s[0:10])
+            """;
+
+    static final String LIST_INDEXING = """
+            l = [1, 2, 3, 4, 5, 6, 7, 8, 9, 10]
+            total = 0
+            for i in range(20000):
+                total = total + l[i % 10]
+                part = l[2:8:2]
+                l[i % 10] = i
+            print(total)
+            """;
+
+    static String source(String name) {
+        return switch (name) {
+            case "small" -> SMALL;
+            case "medium" -> generate(64 * 1024);
+            case "large" -> generate(4 * 1024 * 1024);
+            case "fib" -> FIB;
+            case "loops" -> NESTED_LOOPS;
+            case "strings" -> STRING_CONCAT;
+            case "rewrite" -> STRING_REWRITE;
+            case "lists" -> LIST_INDEXING;
+            default -> throw new IllegalArgumentException("Unknown program: " + name);
+        };
+    }
+
+    // A program of at least the given size in bytes, made of distinct functions,
+    // branches, loops and collection literals so every stage has work to do.
+    static String generate(int bytes) {
+        StringBuilder source = new StringBuilder(bytes + 512);
+        for (int i = 0; source.length() < bytes; i++) {
+            source.append("def f").append(i).append("(n):\n")
+                    .append("    total = 0\n")
+                    .append("    for k in range(n):\n")
+                    .append("        if k % 3 == 0 and n > 1:\n")
+                    .append("            total = total + k * ").append(i).append('\n')
+                    .append("        else:\n")
+                    .append("            total = total - 1\n")
+                    .append("    return total\n\n")
+                    .append("x").append(i).append(" = f").append(i).append('(').append(i % 7).append(")\n")
+                    .append("s").append(i).append(" = \"item\" + \"").append(i).append("\"\n")
+                    .append("l").append(i).append(" = [x").append(i).append(", ").append(i)
+                    .append(", ").append(i).append(".5]\n")
+                    .append("y").append(i).append(" = l").append(i).append("[0:2]\n\n");
+        }
+        return source.toString();
+    }
+
+    // The benchmark programs are known to be valid, so errors only need printing.
+    private static final Errors errors = new Errors(System.err, null);
+
+    static List<Token> scan(String source) {
+        return new Scanner(source, errors).scanTokens();
+    }
+
+    static List<Stmt> parse(List<Token> tokens) {
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        if (errors.hadError) throw new IllegalStateException("Benchmark program failed to parse.");
+        return statements;
+    }
+
+    // Scans, parses, resolves and optimizes a program for the given engine ("tree" or "vm").
+    static Runnable prepare(String engine, String source) {
+        List<Stmt> parsed = parse(scan(source));
+        if (engine.equals("tree")) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.errors = errors;
+            new Resolver(interpreter.globalSlots, errors).resolve(parsed);
+            List<Stmt> statements = new Optimizer().optimize(parsed);
+            return () -> interpreter.interpreter(statements);
+        }
+        VM vm = new VM();
+        vm.errors = errors;
+        new Resolver(vm.globalSlots, errors).resolve(parsed);
+        List<Stmt> statements = new Optimizer().optimize(parsed);
+        return () -> vm.interpreter(statements);
+    }
+
+    // Runs a whole program from source, the way the command line would.
+    static void run(String engine, String source) {
+        prepare(engine, source).run();
+    }
+
+    private static PrintStream stdout;
+
+    // Benchmarked programs print; keep that out of the terminal and the numbers.
+    static void silence() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void restore() {
+        if (stdout != null) System.setOut(stdout);
+    }
+}
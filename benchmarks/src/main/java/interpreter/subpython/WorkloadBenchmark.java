@@ -0,0 +1,50 @@
+package interpreter.subpython;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End to end, from source text to output, on typical workloads: recursive fib,
+// nested range loops, string concatenation, rewriting a string in place, and
+// list indexing and slicing.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkloadBenchmark {
+    @Param({"fib", "loops", "strings", "rewrite", "lists"})
+    public String program;
+
+    @Param({"tree", "vm"})
+    public String engine;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        Programs.silence();
+        source = Programs.source(program);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Programs.restore();
+    }
+
+    @Benchmark
+    public void run() {
+        Programs.run(engine, source);
+    }
+}
@@ -0,0 +1,715 @@
+package interpreter.subpython;
+
+import static interpreter.subpython.TokenType.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles resolved statements to x86-64 assembly (GNU as, AT&T syntax) that is
+// linked against runtime.c. Every value is one word: an odd word is an int shifted
+// left by one, an even word points to a runtime object, and 0 marks a variable that
+// was never assigned. Int arithmetic and comparisons are done inline and fall back
+// to the runtime for other operand types and on overflow.
+//
+// Top-level variables live in the sp_globals array. A function keeps its locals in
+// its frame below %rbp, followed by the temporaries pushed while evaluating, and
+// takes its arguments pushed left to right by the caller.
+class AsmGenerator {
+    // Operator numbers shared with runtime.c.
+    private static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3, MODULO = 4, POWER = 5,
+            EQUAL = 6, NOT_EQUAL = 7, GREATER = 8, GREATER_EQUAL = 9, LESS = 10, LESS_EQUAL = 11,
+            NEGATE = 12, NOT = 13;
+
+    // Condition codes for the comparison operators, indexed by operator - EQUAL.
+    private static final String[] CONDITIONS = {"e", "ne", "g", "ge", "l", "le"};
+    private static final String[] INVERSE_CONDITIONS = {"ne", "e", "le", "l", "ge", "g"};
+
+    // Ints must fit in 63 bits once tagged.
+    private static final long MAX_INT = Long.MAX_VALUE >> 1;
+    private static final long MIN_INT = Long.MIN_VALUE >> 1;
+
+    private final StringBuilder data = new StringBuilder();
+    private final StringBuilder functions = new StringBuilder();
+    private final Map<Object, String> constants = new HashMap<>();
+    private int labelCount = 0;
+    private final Errors errors;
+
+    // The function being generated.
+    private StringBuilder code;
+    private List<String> stubs; // out-of-line error paths, placed after the body
+    private boolean inFunction;
+    private int frameSlots;     // words reserved below %rbp
+    private int pushed;         // temporaries pushed on top of them
+    private String breakLabel, continueLabel; // of the innermost loop
+
+    AsmGenerator(Errors errors) {
+        this.errors = errors;
+    }
+
+    String generate(List<Stmt> statements, int globalCount) {
+        code = new StringBuilder();
+        stubs = new ArrayList<>();
+        inFunction = false;
+        frameSlots = 1; // the caller's %rbx
+        pushed = 0;
+
+        label("main");
+        emit("push %rbp");
+        emit("mov %rsp, %rbp");
+        emit("push %rbx");
+        for (Stmt statement : statements) {
+            generate(statement);
+        }
+        emit("xor %eax, %eax");
+        emit("mov -8(%rbp), %rbx");
+        emit("leave");
+        emit("ret");
+        finishFunction();
+
+        StringBuilder out = new StringBuilder();
+        out.append("    .text\n    .globl main\n").append(functions);
+        out.append("\n    .data\n").append(data);
+        out.append("\n    .bss\n    .balign 8\nsp_globals:\n    .zero ").append(8 * Math.max(globalCount, 1)).append('\n');
+        out.append("\n    .section .note.GNU-stack,\"\",@progbits\n");
+        return out.toString();
+    }
+
+    // Statements
+
+    private void generate(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression expression -> generate(expression.expression);
+            case Stmt.Print print -> print(print.expressions);
+            case Stmt.Assignment assignment -> {
+                generate(assignment.initializer);
+                emit("mov %rax, " + address(assignment.depth, assignment.slot));
+            }
+            case Stmt.Block block -> {
+                for (Stmt statement : block.statements) {
+                    generate(statement);
+                }
+            }
+            case Stmt.If ifStmt -> generateIf(ifStmt);
+            case Stmt.While whileStmt -> {
+                String top = newLabel(), exit = newLabel();
+                label(top);
+                condition(whileStmt.condition, exit, false);
+                loopBody(whileStmt.body, exit, top);
+                emit("jmp " + top);
+                label(exit);
+            }
+            case Stmt.For forStmt -> generateFor(forStmt);
+            case Stmt.ForIterable forIterable -> generateForIterable(forIterable);
+            case Stmt.Function function -> generateFunction(function);
+            case Stmt.Return returnStmt -> {
+                if (returnStmt.value == null) {
+                    emit("lea sp_none(%rip), %rax");
+                } else {
+                    generate(returnStmt.value);
+                }
+                emit("leave");
+                emit("ret");
+            }
+            case Stmt.Break breakStmt -> emit("jmp " + breakLabel);
+            case Stmt.Continue continueStmt -> emit("jmp " + continueLabel);
+            default -> {
+            }
+        }
+    }
+
+    private void generateIf(Stmt.If ifStmt) {
+        String end = newLabel();
+        for (int i = 0; i < ifStmt.condition.size(); i++) {
+            String next = newLabel();
+            condition(ifStmt.condition.get(i), next, false);
+            generate(ifStmt.thenBranch.get(i));
+            emit("jmp " + end);
+            label(next);
+        }
+        if (ifStmt.elseBranch != null) {
+            generate(ifStmt.elseBranch);
+        }
+        label(end);
+    }
+
+    // Every value is evaluated before any is written, then each is printed with the
+    // space or newline that follows it.
+    private void print(List<Expr> values) {
+        if (values.isEmpty()) {
+            emit("lea " + constant("") + "(%rip), %rax");
+            emit("mov %rax, %rdi");
+            emit("mov $" + (int) '\n' + ", %rsi");
+            callRuntime("sp_print");
+            return;
+        }
+        for (Expr value : values) {
+            generate(value);
+            push();
+        }
+        int first = pushed - values.size() + 1;
+        for (int i = 0; i < values.size(); i++) {
+            emit("mov " + temporary(first + i) + ", %rdi");
+            emit("mov $" + (int) (i == values.size() - 1 ? '\n' : ' ') + ", %rsi");
+            callRuntime("sp_print");
+        }
+        pop(values.size());
+    }
+
+    // The counter, end and step are pushed for the duration of the loop, as on the VM.
+    private void generateFor(Stmt.For forStmt) {
+        if (forStmt.end == null) {
+            emit("mov $" + tagged(0) + ", %rax");
+            push();
+            generate(forStmt.start);
+        } else {
+            generate(forStmt.start);
+            push();
+            generate(forStmt.end);
+        }
+        push();
+        if (forStmt.step == null) {
+            emit("mov $" + tagged(1) + ", %rax");
+        } else {
+            generate(forStmt.step);
+        }
+        push();
+        String counter = temporary(pushed - 2), end = temporary(pushed - 1), step = temporary(pushed);
+
+        emit("mov " + counter + ", %rdi");
+        emit("mov " + end + ", %rsi");
+        emit("mov " + step + ", %rdx");
+        emit("mov $" + forStmt.name.line + ", %rcx");
+        callRuntime("sp_range_check");
+
+        // Tagging keeps the order of ints, so the tagged words compare directly.
+        String top = newLabel(), down = newLabel(), body = newLabel(), next = newLabel(), exit = newLabel();
+        label(top);
+        emit("mov " + counter + ", %rax");
+        emit("cmpq $" + tagged(0) + ", " + step);
+        emit("jl " + down);
+        emit("cmp " + end + ", %rax");
+        emit("jge " + exit);
+        emit("jmp " + body);
+        label(down);
+        emit("cmp " + end + ", %rax");
+        emit("jle " + exit);
+        label(body);
+        emit("mov %rax, " + address(forStmt.depth, forStmt.slot));
+        emit("mov " + step + ", %rcx");
+        emit("dec %rcx");
+        emit("add %rcx, %rax");
+        // Stop instead of wrapping around on overflow.
+        emit("jno " + next);
+        emit("mov " + end + ", %rax");
+        label(next);
+        emit("mov %rax, " + counter);
+        loopBody(forStmt.body, exit, top);
+        emit("jmp " + top);
+        label(exit);
+        pop(3);
+    }
+
+    private void generateForIterable(Stmt.ForIterable forIterable) {
+        generate(forIterable.iterable);
+        emit("mov %rax, %rdi");
+        emit("mov $" + forIterable.name.line + ", %rsi");
+        callRuntime("sp_iter");
+        push();
+        String iterator = temporary(pushed);
+
+        String top = newLabel(), exit = newLabel();
+        label(top);
+        emit("mov " + iterator + ", %rdi");
+        callRuntime("sp_next");
+        emit("test %rax, %rax");
+        emit("jz " + exit);
+        emit("mov %rax, " + address(forIterable.depth, forIterable.slot));
+        loopBody(forIterable.body, exit, top);
+        emit("jmp " + top);
+        label(exit);
+        pop(1);
+    }
+
+    // A for-loop's exit label comes before it pops its temporaries, so a break
+    // leaves the stack as the loop would.
+    private void loopBody(Stmt body, String exit, String next) {
+        String enclosingBreak = breakLabel, enclosingContinue = continueLabel;
+        breakLabel = exit;
+        continueLabel = next;
+        generate(body);
+        breakLabel = enclosingBreak;
+        continueLabel = enclosingContinue;
+    }
+
+    private void generateFunction(Stmt.Function stmt) {
+        String entry = "sp_fn" + labelCount++ + "_" + stmt.name.lexeme;
+        String name = string(stmt.name.lexeme, false);
+        String object = newLabel();
+        data.append("    .balign 8\n").append(object).append(":\n    .quad 6, ")
+                .append(stmt.params.size()).append(", ").append(entry).append(", ").append(name).append('\n');
+
+        StringBuilder enclosingCode = code;
+        List<String> enclosingStubs = stubs;
+        boolean enclosingInFunction = inFunction;
+        int enclosingFrameSlots = frameSlots, enclosingPushed = pushed;
+
+        code = new StringBuilder();
+        stubs = new ArrayList<>();
+        inFunction = true;
+        frameSlots = stmt.localCount;
+        pushed = 0;
+
+        int arity = stmt.params.size();
+        label(entry);
+        emit("push %rbp");
+        emit("mov %rsp, %rbp");
+        if (frameSlots > 0) emit("sub $" + 8 * frameSlots + ", %rsp");
+        for (int slot = 0; slot < frameSlots; slot++) {
+            if (slot < arity) {
+                emit("mov " + (16 + 8 * (arity - 1 - slot)) + "(%rbp), %rax");
+                emit("mov %rax, " + local(slot));
+            } else {
+                emit("movq $0, " + local(slot));
+            }
+        }
+        for (Stmt statement : stmt.body) {
+            generate(statement);
+        }
+        emit("lea sp_none(%rip), %rax");
+        emit("leave");
+        emit("ret");
+        finishFunction();
+
+        code = enclosingCode;
+        stubs = enclosingStubs;
+        inFunction = enclosingInFunction;
+        frameSlots = enclosingFrameSlots;
+        pushed = enclosingPushed;
+
+        emit("lea " + object + "(%rip), %rax");
+        emit("mov %rax, " + address(stmt.depth, stmt.slot));
+    }
+
+    private void finishFunction() {
+        for (String stub : stubs) {
+            code.append(stub);
+        }
+        functions.append('\n').append(code);
+    }
+
+    // Expressions. Each leaves its value in %rax.
+
+    private void generate(Expr expr) {
+        switch (expr) {
+            case Expr.Literal literal -> literal(literal);
+            case Expr.Grouping grouping -> generate(grouping.expression);
+            case Expr.Unary unary -> {
+                if (unary.operator.type == MINUS) {
+                    negate(unary);
+                } else {
+                    String isFalse = newLabel(), done = newLabel();
+                    condition(unary.right, isFalse, true);
+                    emit("lea sp_true(%rip), %rax");
+                    emit("jmp " + done);
+                    label(isFalse);
+                    emit("lea sp_false(%rip), %rax");
+                    label(done);
+                }
+            }
+            case Expr.Binary binary -> binary(binary);
+            case Expr.Logical logical -> {
+                String keep = newLabel(), done = newLabel();
+                generate(logical.left);
+                push();
+                truthyJump(keep, logical.operator.type == OR);
+                emit("add $8, %rsp");
+                pushed--;
+                generate(logical.right);
+                emit("jmp " + done);
+                label(keep);
+                emit("pop %rax");
+                label(done);
+            }
+            case Expr.Variable variable -> load(variable.depth, variable.slot, variable.name);
+            case Expr.Assignment assignment -> {
+                if (assignment.index != null) {
+                    load(assignment.depth, assignment.slot, assignment.name);
+                    push();
+                    generate(assignment.index);
+                    push();
+                    generate(assignment.value);
+                    emit("mov %rax, %rdx");
+                    pop("%rsi");
+                    pop("%rdi");
+                    emit("mov $" + assignment.name.line + ", %rcx");
+                    callRuntime("sp_set_index");
+                } else {
+                    generate(assignment.value);
+                }
+                emit("mov %rax, " + address(assignment.depth, assignment.slot));
+            }
+            case Expr.List_ list -> sequence(list.elements);
+            case Expr.Tuple_ tuple -> sequence(tuple.elements);
+            case Expr.Index index -> {
+                load(index.depth, index.slot, index.identifier);
+                push();
+                generate(index.start);
+                if (index.end == null) {
+                    emit("mov %rax, %rsi");
+                    pop("%rdi");
+                    emit("mov $" + index.identifier.line + ", %rdx");
+                    callRuntime("sp_index");
+                } else {
+                    push();
+                    generate(index.end);
+                    push();
+                    if (index.step == null) {
+                        emit("lea sp_none(%rip), %rax");
+                    } else {
+                        generate(index.step);
+                    }
+                    emit("mov %rax, %rcx");
+                    pop("%rdx");
+                    pop("%rsi");
+                    pop("%rdi");
+                    emit("mov $" + index.identifier.line + ", %r8");
+                    callRuntime("sp_slice");
+                }
+            }
+            case Expr.Call call -> call(call);
+            case Expr.Builtin builtin -> errors.error(builtin.name, "'" + builtin.name.lexeme + "' is not supported in native code.");
+            default -> emit("lea sp_none(%rip), %rax");
+        }
+    }
+
+    private void literal(Expr.Literal literal) {
+        switch (literal.value) {
+            case null -> emit("lea sp_none(%rip), %rax");
+            case Boolean bool -> emit("lea " + (bool ? "sp_true" : "sp_false") + "(%rip), %rax");
+            case Long number when number >= MIN_INT && number <= MAX_INT -> {
+                long word = tagged(number);
+                emit((word == (int) word ? "mov $" : "movabs $") + word + ", %rax");
+            }
+            case Long number -> errors.error(literal.token, "Integer literal too large for native code.");
+            case BigInteger number -> errors.error(literal.token, "Integer literal too large for native code.");
+            case Double number -> emit("lea " + constant(number) + "(%rip), %rax");
+            case String text -> emit("lea " + constant(text) + "(%rip), %rax");
+            default -> emit("lea sp_none(%rip), %rax");
+        }
+    }
+
+    private void negate(Expr.Unary unary) {
+        String slow = newLabel(), done = newLabel();
+        generate(unary.right);
+        emit("test $1, %al");
+        emit("jz " + slow);
+        emit("mov $2, %rcx");
+        emit("sub %rax, %rcx");
+        emit("jo " + slow);
+        emit("mov %rcx, %rax");
+        emit("jmp " + done);
+        label(slow);
+        emit("mov %rax, %rsi");
+        emit("mov $" + NEGATE + ", %edi");
+        emit("mov $" + unary.operator.line + ", %rdx");
+        callRuntime("sp_unary");
+        label(done);
+    }
+
+    private void binary(Expr.Binary binary) {
+        if (binary.operator.type == IN) {
+            errors.error(binary.operator, "'in' is not supported in native code.");
+            return;
+        }
+        int op = operator(binary.operator);
+        operands(binary);
+        String slow = newLabel(), done = newLabel();
+        switch (op) {
+            case ADD -> {
+                bothInts(slow);
+                emit("lea -1(%rdi), %rax");
+                emit("add %rsi, %rax");
+                emit("jo " + slow);
+            }
+            case SUBTRACT -> {
+                bothInts(slow);
+                emit("mov %rdi, %rax");
+                emit("sub %rsi, %rax");
+                emit("jo " + slow);
+                emit("or $1, %rax");
+            }
+            case MULTIPLY -> {
+                bothInts(slow);
+                emit("mov %rdi, %rax");
+                emit("sar $1, %rax");
+                emit("lea -1(%rsi), %rcx");
+                emit("imul %rcx, %rax");
+                emit("jo " + slow);
+                emit("or $1, %rax");
+            }
+            case EQUAL, NOT_EQUAL, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                bothInts(slow);
+                emit("cmp %rsi, %rdi");
+                emit("lea sp_false(%rip), %rax");
+                emit("lea sp_true(%rip), %rcx");
+                emit("cmov" + CONDITIONS[op - EQUAL] + " %rcx, %rax");
+            }
+            default -> {
+                runtimeBinary(op, binary.operator);
+                return;
+            }
+        }
+        emit("jmp " + done);
+        label(slow);
+        runtimeBinary(op, binary.operator);
+        label(done);
+    }
+
+    // Evaluates both operands of a binary expression into %rdi and %rsi.
+    private void operands(Expr.Binary binary) {
+        generate(binary.left);
+        push();
+        generate(binary.right);
+        emit("mov %rax, %rsi");
+        pop("%rdi");
+    }
+
+    private void bothInts(String otherwise) {
+        emit("mov %rdi, %rax");
+        emit("and %rsi, %rax");
+        emit("test $1, %al");
+        emit("jz " + otherwise);
+    }
+
+    private void runtimeBinary(int op, Token operator) {
+        emit("mov %rsi, %rdx");
+        emit("mov %rdi, %rsi");
+        emit("mov $" + op + ", %edi");
+        emit("mov $" + operator.line + ", %rcx");
+        callRuntime("sp_binary");
+    }
+
+    private void sequence(List<Expr> elements) {
+        for (Expr element : elements) {
+            generate(element);
+            push();
+        }
+        emit("mov $" + elements.size() + ", %rdi");
+        emit("mov %rsp, %rsi");
+        callRuntime("sp_list");
+        pop(elements.size());
+    }
+
+    private void call(Expr.Call call) {
+        int argCount = call.arguments.size();
+        for (Expr argument : call.arguments) {
+            generate(argument);
+            push();
+        }
+        load(call.depth, call.slot, call.identifier);
+        String error = newLabel();
+        emit("test $1, %al");
+        emit("jnz " + error);
+        emit("cmpq $6, (%rax)");
+        emit("jne " + error);
+        emit("cmpq $" + argCount + ", 8(%rax)");
+        emit("jne " + error);
+        emit("call *16(%rax)");
+        pop(argCount);
+        stubs.add(error + ":\n"
+                + "    mov %rax, %rdi\n"
+                + "    mov $" + argCount + ", %rsi\n"
+                + "    mov $" + call.identifier.line + ", %rdx\n"
+                + "    and $-16, %rsp\n"
+                + "    call sp_call_error\n");
+    }
+
+    // Conditions. These jump to target when the truthiness of expr equals jumpWhen
+    // and fall through otherwise, without materializing a bool where possible.
+
+    private void condition(Expr expr, String target, boolean jumpWhen) {
+        switch (expr) {
+            case Expr.Grouping grouping -> condition(grouping.expression, target, jumpWhen);
+            case Expr.Literal literal when literal.value instanceof Boolean bool -> {
+                if (bool == jumpWhen) emit("jmp " + target);
+            }
+            case Expr.Unary unary when unary.operator.type == BANG -> condition(unary.right, target, !jumpWhen);
+            case Expr.Logical logical -> {
+                boolean shortCircuit = logical.operator.type == OR;
+                if (shortCircuit == jumpWhen) {
+                    condition(logical.left, target, jumpWhen);
+                    condition(logical.right, target, jumpWhen);
+                } else {
+                    String skip = newLabel();
+                    condition(logical.left, skip, shortCircuit);
+                    condition(logical.right, target, jumpWhen);
+                    label(skip);
+                }
+            }
+            case Expr.Binary binary when isComparison(binary.operator) -> {
+                int op = operator(binary.operator);
+                operands(binary);
+                String slow = newLabel(), done = newLabel();
+                bothInts(slow);
+                emit("cmp %rsi, %rdi");
+                emit("j" + (jumpWhen ? CONDITIONS : INVERSE_CONDITIONS)[op - EQUAL] + " " + target);
+                emit("jmp " + done);
+                label(slow);
+                runtimeBinary(op, binary.operator);
+                emit("lea sp_true(%rip), %rcx");
+                emit("cmp %rcx, %rax");
+                emit((jumpWhen ? "je " : "jne ") + target);
+                label(done);
+            }
+            default -> {
+                generate(expr);
+                truthyJump(target, jumpWhen);
+            }
+        }
+    }
+
+    // Tests the value in %rax, handling ints and bools inline.
+    private void truthyJump(String target, boolean jumpWhen) {
+        String other = newLabel();
+        String ifTrue = jumpWhen ? target : other;
+        String ifFalse = jumpWhen ? other : target;
+        emit("cmp $" + tagged(0) + ", %rax");
+        emit("je " + ifFalse);
+        emit("test $1, %al");
+        emit("jnz " + ifTrue);
+        emit("lea sp_true(%rip), %rcx");
+        emit("cmp %rcx, %rax");
+        emit("je " + ifTrue);
+        emit("lea sp_false(%rip), %rcx");
+        emit("cmp %rcx, %rax");
+        emit("je " + ifFalse);
+        emit("mov %rax, %rdi");
+        callRuntime("sp_truthy");
+        emit("test %rax, %rax");
+        emit((jumpWhen ? "jnz " : "jz ") + target);
+        label(other);
+    }
+
+    private boolean isComparison(Token operator) {
+        int op = operator(operator);
+        return op >= EQUAL && op <= LESS_EQUAL;
+    }
+
+    private int operator(Token operator) {
+        return switch (operator.type) {
+            case PLUS -> ADD;
+            case MINUS -> SUBTRACT;
+            case STAR -> MULTIPLY;
+            case SLASH -> DIVIDE;
+            case MOD -> MODULO;
+            case POW -> POWER;
+            case EQUAL_EQUAL -> EQUAL;
+            case BANG_EQUAL -> NOT_EQUAL;
+            case GREATER -> GREATER;
+            case GREATER_EQUAL -> GREATER_EQUAL;
+            case LESS -> LESS;
+            case LESS_EQUAL -> LESS_EQUAL;
+            default -> throw new RuntimeError(operator, "Unsupported operator.");
+        };
+    }
+
+    // Variables
+
+    private String address(int depth, int slot) {
+        return inFunction && depth == 0 ? local(slot) : "sp_globals+" + 8 * slot + "(%rip)";
+    }
+
+    private String local(int slot) {
+        return -8 * (slot + 1) + "(%rbp)";
+    }
+
+    // The n-th word pushed on top of the frame's locals, counting from 1.
+    private String temporary(int n) {
+        return -8 * (frameSlots + n) + "(%rbp)";
+    }
+
+    private void load(int depth, int slot, Token name) {
+        String undefined = newLabel();
+        emit("mov " + address(depth, slot) + ", %rax");
+        emit("test %rax, %rax");
+        emit("jz " + undefined);
+        stubs.add(undefined + ":\n"
+                + "    lea " + string(name.lexeme, false) + "(%rip), %rdi\n"
+                + "    mov $" + name.line + ", %rsi\n"
+                + "    and $-16, %rsp\n"
+                + "    call sp_undefined\n");
+    }
+
+    // Constants
+
+    private String constant(Double number) {
+        return constants.computeIfAbsent(number, key -> {
+            String label = newLabel();
+            data.append("    .balign 8\n").append(label).append(":\n    .quad 3, ")
+                    .append(Double.doubleToRawLongBits(number)).append('\n');
+            return label;
+        });
+    }
+
+    private String constant(String text) {
+        return string(text, true);
+    }
+
+    // A string object when boxed, otherwise a bare C string for the runtime.
+    private String string(String text, boolean boxed) {
+        return constants.computeIfAbsent(boxed ? text : List.of(text), key -> {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            String label = newLabel();
+            data.append("    .balign 8\n").append(label).append(":\n");
+            if (boxed) data.append("    .quad 4, ").append(bytes.length).append('\n');
+            data.append("    .byte ");
+            for (byte b : bytes) data.append(b & 0xff).append(", ");
+            data.append("0\n");
+            return label;
+        });
+    }
+
+    // Emitters
+
+    private long tagged(long number) {
+        return number << 1 | 1;
+    }
+
+    private void push() {
+        emit("push %rax");
+        pushed++;
+    }
+
+    private void pop(String register) {
+        emit("pop " + register);
+        pushed--;
+    }
+
+    private void pop(int count) {
+        if (count > 0) emit("add $" + 8 * count + ", %rsp");
+        pushed -= count;
+    }
+
+    // Calls into the runtime with the stack aligned as the C ABI requires.
+    private void callRuntime(String function) {
+        emit("mov %rsp, %rbx");
+        emit("and $-16, %rsp");
+        emit("call " + function);
+        emit("mov %rbx, %rsp");
+    }
+
+    private String newLabel() {
+        return ".L" + labelCount++;
+    }
+
+    private void label(String name) {
+        code.append(name).append(":\n");
+    }
+
+    private void emit(String instruction) {
+        code.append("    ").append(instruction).append('\n');
+    }
+}
@@ -0,0 +1,80 @@
+package interpreter.subpython;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A compiled function body: a flat instruction array with its constant pool.
+// Instructions are stored as ints ("wordcode") so operands never need decoding.
+class Chunk {
+    int[] code = new int[64];
+    int count = 0;
+    // Token that produced each instruction, used to report runtime errors.
+    Token[] tokens = new Token[64];
+    final List<Object> constants = new ArrayList<>();
+    // Constant pool as an array, filled in by seal() for the VM's dispatch loop.
+    Object[] pool;
+    // Deepest the operand stack gets, so the VM can reserve it once per call.
+    int maxStack;
+    // Inline cache of each CALL instruction: the function it last called. CALL's
+    // second operand indexes this.
+    //
+    // This is the one thing written while the code runs, and VMs on other threads
+    // running the same Program write it without synchronization. That is safe by
+    // construction: a reference write is atomic, so a slot only ever holds some
+    // Function that passed CALL's checks, and CALL only trusts the slot when it
+    // holds the very callee on its own stack. A racing write can cost a thread a
+    // repeated check, never a wrong call.
+    Function[] callTargets;
+    int callSites;
+    private int depth;
+
+    int write(int word, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = word;
+        tokens[count] = token;
+        return count++;
+    }
+
+    void adjustStack(int effect) {
+        depth += effect;
+        if (depth > maxStack) maxStack = depth;
+    }
+
+    int addConstant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    // Trims the buffers once compilation is done.
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        tokens = Arrays.copyOf(tokens, count);
+        pool = constants.toArray();
+        callTargets = new Function[callSites];
+    }
+
+    String disassemble(String name) {
+        StringBuilder builder = new StringBuilder("== " + name + " ==\n");
+        int offset = 0;
+        while (offset < count) {
+            int op = code[offset];
+            builder.append(String.format("%04d %-20s", offset, OpCode.NAMES[op]));
+            for (int i = 1; i < OpCode.operandCount(op); i++) {
+                builder.append(code[offset + 1 + i]).append(' ');
+            }
+            if (OpCode.operandCount(op) >= 1) {
+                builder.append(code[offset + 1]);
+                if (op == OpCode.CONSTANT) {
+                    builder.append(" '").append(Operators.stringify(constants.get(code[offset + 1]))).append("'");
+                }
+            }
+            builder.append('\n');
+            offset += 1 + OpCode.operandCount(op);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package interpreter.subpython;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Runs a script on a server started with subpython --serve=<socket>, printing
+// its output and exiting with its status as if it had run here:
+//
+//     java -cp ... interpreter.subpython.Client <socket> script.py
+//     echo 'print(1 + 2)' | java -cp ... interpreter.subpython.Client <socket> -
+//
+// It touches nothing of the interpreter but Server's frame kinds, so starting it
+// costs little more than starting the JVM.
+public final class Client {
+    private Client() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage : client <socket> <script | ->");
+            System.exit(64);
+        }
+        byte kind;
+        byte[] request;
+        if (args[1].equals("-")) {
+            kind = Server.SOURCE;
+            request = System.in.readAllBytes();
+        } else {
+            // The server's working directory is not ours.
+            kind = Server.PATH;
+            request = Path.of(args[1]).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        try (SocketChannel server = SocketChannel.open(UnixDomainSocketAddress.of(args[0]))) {
+            ByteBuffer header = ByteBuffer.allocate(5).put(kind).putInt(request.length).flip();
+            ByteBuffer[] frame = {header, ByteBuffer.wrap(request)};
+            while (frame[1].hasRemaining() || header.hasRemaining()) server.write(frame);
+
+            for (;;) {
+                ByteBuffer reply = read(server, ByteBuffer.allocate(5));
+                byte type = reply.get();
+                byte[] payload = read(server, ByteBuffer.allocate(reply.getInt())).array();
+                switch (type) {
+                    case Server.OUT -> System.out.write(payload);
+                    case Server.ERR -> {
+                        // What the script printed before the error shows up before it.
+                        System.out.flush();
+                        System.err.write(payload);
+                    }
+                    case Server.EXIT -> {
+                        System.out.flush();
+                        System.exit(ByteBuffer.wrap(payload).getInt());
+                    }
+                    default -> throw new IOException("Unknown reply from server.");
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Can't run on " + args[0] + ": " + ex.getMessage());
+            System.exit(69);
+        }
+    }
+
+    private static ByteBuffer read(SocketChannel server, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (server.read(buffer) < 0) throw new EOFException("Server closed the connection.");
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,400 @@
+package interpreter.subpython;
+
+import static interpreter.subpython.TokenType.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lowers resolved statements into bytecode for the VM. Variables use the slots
+// assigned by the Resolver: top-level code and depth 1 name global slots,
+// depth 0 inside a function names a slot of the function's frame.
+class Compiler {
+    private Chunk chunk;
+    private Map<Object, Integer> constantIndex;
+    private boolean inFunction;
+    private Loop loop; // innermost loop being compiled, or null
+
+    // Where continue jumps to, and the break jumps to patch once the loop's exit is known.
+    private record Loop(Loop enclosing, int continueTarget, List<Integer> breaks) {}
+
+    Function compile(List<Stmt> statements) {
+        Token name = new Token(IDENTIFIER, "<script>", null, 0);
+        Function script = new Function(new Stmt.Function(name, List.of(), statements, 0));
+        chunk = new Chunk();
+        constantIndex = new HashMap<>();
+        inFunction = false;
+
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.NONE, name);
+        emit(OpCode.RETURN, name);
+        chunk.seal();
+        script.chunk = chunk;
+        return script;
+    }
+
+    // Statements
+
+    private void compile(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression expression -> {
+                compile(expression.expression);
+                emit(OpCode.POP, null);
+            }
+            case Stmt.Print print -> {
+                List<Expr> values = print.expressions;
+                int borrowed = Optimizer.firstBorrowed(values);
+                for (int i = 0; i < values.size(); i++) {
+                    if (i < borrowed) {
+                        compile(values.get(i));
+                    } else {
+                        compileBorrowed(values.get(i));
+                    }
+                }
+                emit(OpCode.PRINT, values.size(), null);
+            }
+            case Stmt.Assignment assignment -> {
+                Expr appended = Optimizer.appended(assignment);
+                if (appended != null) {
+                    Expr.Binary binary = (Expr.Binary) assignment.initializer;
+                    emitBorrow(assignment.depth, assignment.slot, ((Expr.Variable) binary.left).name);
+                    compile(appended);
+                    emit(OpCode.APPEND, binary.operator);
+                } else {
+                    compile(assignment.initializer);
+                }
+                emitStore(assignment.depth, assignment.slot, assignment.name);
+            }
+            case Stmt.Block block -> {
+                for (Stmt statement : block.statements) {
+                    compile(statement);
+                }
+            }
+            case Stmt.If ifStmt -> compileIf(ifStmt);
+            case Stmt.While whileStmt -> compileWhile(whileStmt);
+            case Stmt.For forStmt -> compileFor(forStmt);
+            case Stmt.ForIterable forIterable -> compileForIterable(forIterable);
+            case Stmt.Function function -> compileFunction(function);
+            case Stmt.Return returnStmt -> {
+                if (returnStmt.value == null) {
+                    emit(OpCode.NONE, null);
+                } else {
+                    compile(returnStmt.value);
+                }
+                emit(OpCode.RETURN, null);
+            }
+            case Stmt.Break breakStmt -> loop.breaks.add(emitJump(OpCode.JUMP, breakStmt.keyword));
+            case Stmt.Continue continueStmt -> emit(OpCode.JUMP, loop.continueTarget, continueStmt.keyword);
+            default -> {
+            }
+        }
+    }
+
+    private void compileIf(Stmt.If ifStmt) {
+        int[] exits = new int[ifStmt.condition.size()];
+        for (int i = 0; i < exits.length; i++) {
+            compile(ifStmt.condition.get(i));
+            int next = emitJump(OpCode.JUMP_IF_FALSE, null);
+            compile(ifStmt.thenBranch.get(i));
+            exits[i] = emitJump(OpCode.JUMP, null);
+            patchJump(next);
+        }
+        if (ifStmt.elseBranch != null) {
+            compile(ifStmt.elseBranch);
+        }
+        for (int exit : exits) {
+            patchJump(exit);
+        }
+    }
+
+    private void compileWhile(Stmt.While whileStmt) {
+        int loopStart = chunk.count;
+        compile(whileStmt.condition);
+        int exit = emitJump(OpCode.JUMP_IF_FALSE, null);
+        compileLoopBody(whileStmt.body, loopStart);
+        emit(OpCode.JUMP, loopStart, null);
+        patchJump(exit);
+        endLoop();
+    }
+
+    private void compileLoopBody(Stmt body, int continueTarget) {
+        loop = new Loop(loop, continueTarget, new ArrayList<>());
+        compile(body);
+    }
+
+    // Patches the loop's breaks to jump here and leaves it. For-loops call this
+    // before popping their temporaries, which a break has to pop too.
+    private void endLoop() {
+        for (int jump : loop.breaks) {
+            patchJump(jump);
+        }
+        loop = loop.enclosing;
+    }
+
+    // The counter, end and step stay on the stack for the duration of the loop, so
+    // assigning to the loop variable inside the body does not change the iteration.
+    private void compileFor(Stmt.For forStmt) {
+        if (forStmt.end == null) {
+            emitConstant(0L, forStmt.name);
+            compile(forStmt.start);
+        } else {
+            compile(forStmt.start);
+            compile(forStmt.end);
+        }
+        if (forStmt.step == null) {
+            emitConstant(1L, forStmt.name);
+        } else {
+            compile(forStmt.step);
+        }
+
+        int loopStart = emitJump(OpCode.FOR_RANGE, forStmt.name) - 1;
+        emitStore(forStmt.depth, forStmt.slot, forStmt.name);
+        compileLoopBody(forStmt.body, loopStart);
+        emit(OpCode.JUMP, loopStart, null);
+        patchJump(loopStart + 1);
+        endLoop();
+        emit(OpCode.POP, null);
+        emit(OpCode.POP, null);
+        emit(OpCode.POP, null);
+    }
+
+    private void compileForIterable(Stmt.ForIterable forIterable) {
+        compile(forIterable.iterable);
+        emit(OpCode.GET_ITER, forIterable.name);
+        int loopStart = emitJump(OpCode.FOR_ITER, forIterable.name) - 1;
+        emitStore(forIterable.depth, forIterable.slot, forIterable.name);
+        compileLoopBody(forIterable.body, loopStart);
+        emit(OpCode.JUMP, loopStart, null);
+        patchJump(loopStart + 1);
+        endLoop();
+        emit(OpCode.POP, null);
+    }
+
+    private void compileFunction(Stmt.Function stmt) {
+        Function function = new Function(stmt);
+
+        Chunk enclosingChunk = chunk;
+        Map<Object, Integer> enclosingConstants = constantIndex;
+        boolean enclosingInFunction = inFunction;
+        Loop enclosingLoop = loop;
+
+        chunk = new Chunk();
+        constantIndex = new HashMap<>();
+        inFunction = true;
+        loop = null;
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emit(OpCode.NONE, stmt.name);
+        emit(OpCode.RETURN, stmt.name);
+        chunk.seal();
+        function.chunk = chunk;
+
+        chunk = enclosingChunk;
+        constantIndex = enclosingConstants;
+        inFunction = enclosingInFunction;
+        loop = enclosingLoop;
+
+        if (function.memo != null) {
+            // Each run of the def gets a cache of its own, as on the tree-walker.
+            emit(OpCode.FUNCTION, chunk.addConstant(function), stmt.name);
+        } else {
+            emitConstant(function, stmt.name);
+        }
+        emitStore(stmt.depth, stmt.slot, stmt.name);
+    }
+
+    // Expressions
+
+    private void compile(Expr expr) {
+        switch (expr) {
+            case Expr.Literal literal -> {
+                if (literal.value == null) {
+                    emit(OpCode.NONE, null);
+                } else if (literal.value instanceof Boolean bool) {
+                    emit(bool ? OpCode.TRUE : OpCode.FALSE, null);
+                } else {
+                    emitConstant(literal.value, null);
+                }
+            }
+            case Expr.Grouping grouping -> compile(grouping.expression);
+            case Expr.Unary unary -> {
+                compile(unary.right);
+                emit(unary.operator.type == MINUS ? OpCode.NEGATE : OpCode.NOT, unary.operator);
+            }
+            case Expr.Binary binary -> {
+                if (!Optimizer.inspects(binary.operator)) {
+                    compile(binary.left);
+                    compile(binary.right);
+                } else if (Optimizer.isPure(binary.right)) {
+                    compileBorrowed(binary.left);
+                    compileBorrowed(binary.right);
+                } else {
+                    compile(binary.left);
+                    compileBorrowed(binary.right);
+                }
+                emit(binaryOp(binary.operator), binary.operator);
+            }
+            case Expr.Logical logical -> {
+                compile(logical.left);
+                int end = emitJump(logical.operator.type == OR
+                        ? OpCode.JUMP_IF_TRUE_OR_POP : OpCode.JUMP_IF_FALSE_OR_POP, logical.operator);
+                compile(logical.right);
+                patchJump(end);
+            }
+            case Expr.Variable variable -> emitGet(variable.depth, variable.slot, variable.name);
+            case Expr.Assignment assignment -> {
+                if (assignment.index == null) {
+                    compile(assignment.value);
+                } else {
+                    // The string can only be written in place if nothing evaluated
+                    // before the write can reach it.
+                    if (Optimizer.isPure(assignment.index) && Optimizer.isPure(assignment.value)) {
+                        emitBorrow(assignment.depth, assignment.slot, assignment.name);
+                    } else {
+                        emitGet(assignment.depth, assignment.slot, assignment.name);
+                    }
+                    compile(assignment.index);
+                    compile(assignment.value);
+                    emit(OpCode.SET_INDEX, assignment.name);
+                }
+                emitSet(assignment.depth, assignment.slot, assignment.name);
+            }
+            case Expr.List_ list -> {
+                for (Expr element : list.elements) compile(element);
+                emit(OpCode.BUILD_LIST, list.elements.size(), null);
+            }
+            case Expr.Tuple_ tuple -> {
+                for (Expr element : tuple.elements) compile(element);
+                emit(OpCode.BUILD_TUPLE, tuple.elements.size(), null);
+            }
+            case Expr.Index index -> {
+                // An element is copied out and a slice shares the string itself.
+                if (Optimizer.isPure(index.start) && Optimizer.isPure(index.end) && Optimizer.isPure(index.step)) {
+                    emitBorrow(index.depth, index.slot, index.identifier);
+                } else {
+                    emitGet(index.depth, index.slot, index.identifier);
+                }
+                compile(index.start);
+                if (index.end == null) {
+                    emit(OpCode.INDEX, index.identifier);
+                } else {
+                    compile(index.end);
+                    if (index.step == null) {
+                        emit(OpCode.NONE, null);
+                    } else {
+                        compile(index.step);
+                    }
+                    emit(OpCode.SLICE, index.identifier);
+                }
+            }
+            case Expr.Call call -> {
+                emitGet(call.depth, call.slot, call.identifier);
+                for (Expr argument : call.arguments) compile(argument);
+                emit(OpCode.CALL, call.arguments.size(), call.identifier);
+                chunk.write(chunk.callSites++, call.identifier);
+            }
+            case Expr.Builtin builtin -> compileBuiltin(builtin);
+            default -> emit(OpCode.NONE, null);
+        }
+    }
+
+    private void compileBuiltin(Expr.Builtin builtin) {
+        List<Expr> arguments = builtin.arguments;
+        if (builtin.name.type == LEN) {
+            compileBorrowed(arguments.get(0));
+            emit(OpCode.LEN, builtin.name);
+            return;
+        }
+        if (builtin.name.type == PMAP) {
+            for (Expr argument : arguments) compile(argument);
+            emit(OpCode.PMAP, builtin.name);
+            return;
+        }
+        if (arguments.size() == 1) emitConstant(0L, builtin.name);
+        for (Expr argument : arguments) compile(argument);
+        if (arguments.size() < 3) emitConstant(1L, builtin.name);
+        emit(OpCode.RANGE, builtin.name);
+    }
+
+    // A variable read for a value that is used up before anything else can write
+    // to it, such as an operand of len or a comparison, is borrowed: a string
+    // buffer in it stays unshared, so the next write needn't copy it.
+    private void compileBorrowed(Expr expr) {
+        if (expr instanceof Expr.Variable variable) {
+            emitBorrow(variable.depth, variable.slot, variable.name);
+        } else {
+            compile(expr);
+        }
+    }
+
+    private int binaryOp(Token operator) {
+        return switch (operator.type) {
+            case PLUS -> OpCode.ADD;
+            case MINUS -> OpCode.SUBTRACT;
+            case STAR -> OpCode.MULTIPLY;
+            case SLASH -> OpCode.DIVIDE;
+            case MOD -> OpCode.MODULO;
+            case POW -> OpCode.POWER;
+            case EQUAL_EQUAL -> OpCode.EQUAL;
+            case BANG_EQUAL -> OpCode.NOT_EQUAL;
+            case GREATER -> OpCode.GREATER;
+            case GREATER_EQUAL -> OpCode.GREATER_EQUAL;
+            case LESS -> OpCode.LESS;
+            case LESS_EQUAL -> OpCode.LESS_EQUAL;
+            case IN -> OpCode.CONTAINS;
+            default -> throw new RuntimeError(operator, "Unsupported operator.");
+        };
+    }
+
+    // Emitters
+
+    private void emitGet(int depth, int slot, Token name) {
+        emit(inFunction && depth == 0 ? OpCode.GET_LOCAL : OpCode.GET_GLOBAL, slot, name);
+    }
+
+    private void emitBorrow(int depth, int slot, Token name) {
+        emit(inFunction && depth == 0 ? OpCode.BORROW_LOCAL : OpCode.BORROW_GLOBAL, slot, name);
+    }
+
+    private void emitSet(int depth, int slot, Token name) {
+        emit(inFunction && depth == 0 ? OpCode.SET_LOCAL : OpCode.SET_GLOBAL, slot, name);
+    }
+
+    private void emitStore(int depth, int slot, Token name) {
+        emit(inFunction && depth == 0 ? OpCode.STORE_LOCAL : OpCode.STORE_GLOBAL, slot, name);
+    }
+
+    private void emitConstant(Object value, Token token) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = chunk.addConstant(value);
+            constantIndex.put(value, index);
+        }
+        emit(OpCode.CONSTANT, index, token);
+    }
+
+    private void emit(int op, Token token) {
+        chunk.write(op, token);
+        chunk.adjustStack(OpCode.stackEffect(op, 0));
+    }
+
+    private void emit(int op, int operand, Token token) {
+        chunk.write(op, token);
+        chunk.write(operand, token);
+        chunk.adjustStack(OpCode.stackEffect(op, operand));
+    }
+
+    // Returns the position of the jump target operand, to be patched later.
+    private int emitJump(int op, Token token) {
+        chunk.write(op, token);
+        chunk.adjustStack(OpCode.stackEffect(op, 0));
+        return chunk.write(-1, token);
+    }
+
+    private void patchJump(int operand) {
+        chunk.code[operand] = chunk.count;
+    }
+}
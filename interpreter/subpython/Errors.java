@@ -0,0 +1,69 @@
+package interpreter.subpython;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where the errors of scanning, parsing, resolving and running a script go. Each
+// script being compiled or run has its own, so that scripts on other threads
+// neither see nor cause each other's errors. The command line's prints them to
+// stderr as they come; an embedded script's only keeps them for its caller.
+class Errors {
+    boolean hadError;
+    boolean hadRuntimeError;
+    private final List<String> messages = new ArrayList<>();
+    private final PrintStream err;  // null to only keep the messages
+    private final Output output;    // flushed before a message is printed
+
+    Errors(PrintStream err, Output output) {
+        this.err = err;
+        this.output = output;
+    }
+
+    // Keeps the messages without printing them.
+    Errors() {
+        this(null, null);
+    }
+
+    void error(int line, String message) {
+        hadError = true;
+        Events.error(line, message);
+        report("[line " + line + "] Error: " + message);
+    }
+
+    void error(Token token, String message) {
+        hadError = true;
+        Events.error(token.line, message);
+        if (token.type == TokenType.EOF) {
+            report("[line " + token.line + "] Error at end: " + message);
+        } else {
+            report("[line " + token.line + "] Error at '" + token.source() + "': " + message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        hadRuntimeError = true;
+        Events.error(error.token.line, error.getMessage());
+        report(error.getMessage() + "\n[line " + error.token.line + "]");
+    }
+
+    // What was reported, in order.
+    List<String> messages() {
+        return messages;
+    }
+
+    // Starts over for the next line at the prompt.
+    void clear() {
+        hadError = false;
+        hadRuntimeError = false;
+        messages.clear();
+    }
+
+    private void report(String message) {
+        messages.add(message);
+        if (err == null) return;
+        // Output printed before the error shows up before it.
+        if (output != null) output.flush();
+        err.println(message);
+    }
+}
@@ -0,0 +1,207 @@
+package interpreter.subpython;
+
+import java.nio.file.Path;
+import java.util.Set;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingControl;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.Threshold;
+
+// JDK Flight Recorder events, so that a recording shows what the scripts were
+// doing next to the JVM's own GC and thread events. They are configured like
+// any other event, e.g. -XX:StartFlightRecording:subpython.FunctionCall#threshold=1ms,
+// and cost a check of a static flag while no recording has them enabled.
+final class Events {
+    private Events() {}
+
+    @Name("subpython.Parse")
+    @Label("Script Parse")
+    @Category("Subpython")
+    @Description("Scanning and parsing a script, or loading it from the script cache")
+    static final class Parse extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("From Cache")
+        boolean cached;
+
+        @Label("Statements")
+        int statements;
+    }
+
+    @Name("subpython.Execute")
+    @Label("Script Execution")
+    @Category("Subpython")
+    @Description("Running parsed statements, from resolving them to the end of the run")
+    static final class Execute extends Event {
+        @Label("Engine")
+        String engine;
+    }
+
+    @Name("subpython.FunctionCall")
+    @Label("Function Call")
+    @Category("Subpython")
+    @Description("A call of a script function that took longer than the threshold")
+    @Threshold("20 ms")
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Defined On Line")
+        int line;
+    }
+
+    @Name("subpython.Error")
+    @Label("Script Error")
+    @Category("Subpython")
+    @Description("A syntax, resolution or runtime error reported for a script")
+    static final class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("subpython.LargeAllocation")
+    @Label("Large Allocation")
+    @Category("Subpython")
+    @Description("Storage allocated for a list or a string at least minSize elements long")
+    static final class LargeAllocation extends Event {
+        @Label("Kind")
+        String kind;
+
+        @Label("Size")
+        @Description("Length in elements or characters")
+        long size;
+
+        @Label("Minimum Size")
+        @Name("minSize")
+        @SettingDefinition
+        boolean minSize(MinSize setting) {
+            return size >= setting.minimum;
+        }
+    }
+
+    // The minSize setting of LargeAllocation. With several recordings running,
+    // the smallest minimum applies.
+    public static final class MinSize extends SettingControl {
+        private static final String DEFAULT = "65536";
+        private String value = DEFAULT;
+        long minimum = Long.parseLong(DEFAULT);
+
+        @Override
+        public String combine(Set<String> values) {
+            long smallest = Long.MAX_VALUE;
+            for (String value : values) smallest = Math.min(smallest, parse(value));
+            return values.isEmpty() ? DEFAULT : Long.toString(smallest);
+        }
+
+        @Override
+        public void setValue(String value) {
+            this.value = value;
+            minimum = parse(value);
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+
+        private static long parse(String value) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return Long.parseLong(DEFAULT);
+            }
+        }
+    }
+
+    // Creating the first event starts the recorder's machinery, which takes a few
+    // hundred milliseconds, so no event is created until a recorder is running.
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // isEnabled() only reads the event class's configuration, so one instance can
+    // answer it for every call site without a new event per call.
+    private static final class Probes {
+        static final FunctionCall CALLS = new FunctionCall();
+        static final LargeAllocation ALLOCATIONS = new LargeAllocation();
+    }
+
+    // Started events, or null when no recording wants them.
+
+    static Parse beginParse() {
+        if (!recording()) return null;
+        Parse event = new Parse();
+        event.begin();
+        return event;
+    }
+
+    static void endParse(Parse event, Path script, boolean cached, int statements) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.script = script.toString();
+            event.cached = cached;
+            event.statements = statements;
+            event.commit();
+        }
+    }
+
+    static Execute beginExecute() {
+        if (!recording()) return null;
+        Execute event = new Execute();
+        event.begin();
+        return event;
+    }
+
+    static void endExecute(Execute event, String engine) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.engine = engine;
+            event.commit();
+        }
+    }
+
+    static FunctionCall beginCall() {
+        if (!recording() || !Probes.CALLS.isEnabled()) return null;
+        FunctionCall event = new FunctionCall();
+        event.begin();
+        return event;
+    }
+
+    static void endCall(FunctionCall event, Function function) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = function.name.lexeme;
+            event.line = function.name.line;
+            event.commit();
+        }
+    }
+
+    static void error(int line, String message) {
+        if (!recording()) return;
+        ScriptError event = new ScriptError();
+        if (event.isEnabled()) {
+            event.message = message;
+            event.line = line;
+            event.commit();
+        }
+    }
+
+    static void allocated(String kind, long size) {
+        if (!recording() || !Probes.ALLOCATIONS.isEnabled()) return;
+        LargeAllocation event = new LargeAllocation();
+        event.size = size;
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.commit();
+        }
+    }
+}
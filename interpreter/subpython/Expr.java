@@ -7,6 +7,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        int state;
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -25,9 +26,11 @@ abstract class Expr {
 
     static class Literal extends Expr {
         final Object value;
+        final Token token;
 
-        Literal(Object value) {
+        Literal(Object value, Token token) {
             this.value = value;
+            this.token = token;
         }
     }
 
@@ -45,6 +48,8 @@ abstract class Expr {
         final Token name;
         final Expr value;
         final Expr index;
+        int depth;
+        int slot;
 
         Assignment(Token name, Expr value, Expr index) {
             this.name = name;
@@ -55,6 +60,8 @@ abstract class Expr {
 
     static class Variable extends Expr {
         final Token name;
+        int depth;
+        int slot;
 
         Variable(Token name) {
             this.name = name;
@@ -94,6 +101,8 @@ abstract class Expr {
         final Expr start;
         final Expr end;
         final Expr step;
+        int depth;
+        int slot;
 
         Index(Token identifier, Expr start, Expr end, Expr step) {
             this.identifier = identifier;
@@ -106,6 +115,9 @@ abstract class Expr {
     static class Call extends Expr {
         final Token identifier;
         final List<Expr> arguments;
+        int depth;
+        int slot;
+        Function target;
 
         Call(Token identifier, List<Expr> arguments) {
             this.identifier = identifier;
@@ -113,4 +125,14 @@ abstract class Expr {
         }
     }
 
+    static class Builtin extends Expr {
+        final Token name;
+        final List<Expr> arguments;
+
+        Builtin(Token name, List<Expr> arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+    }
+
 }
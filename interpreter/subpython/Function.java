@@ -6,11 +6,29 @@ class Function {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    // Size of the frame, as computed by the Resolver.
+    final int localCount;
+    // Filled in by the Compiler when the function runs on the bytecode VM.
+    Chunk chunk;
+    // The result cache of a function defined under @memo, otherwise null.
+    final Memo memo;
 
     Function(Stmt.Function function) {
         this.name = function.name;
         this.params = function.params;
         this.body = function.body;
+        this.localCount = function.localCount;
+        this.memo = function.memo > 0 ? new Memo(function.memo) : null;
+    }
+
+    // A copy with an empty result cache, for each run of a memoized def on the VM.
+    Function(Function function) {
+        this.name = function.name;
+        this.params = function.params;
+        this.body = function.body;
+        this.localCount = function.localCount;
+        this.chunk = function.chunk;
+        this.memo = new Memo(function.memo.capacity);
     }
 
     public int arity(){
@@ -20,5 +38,5 @@ class Function {
     @Override
     public String toString() {
         return "<fn " + name.lexeme + ">";
-    }    
-}
\ No newline at end of file
+    }
+}
@@ -1,105 +1,167 @@
 package interpreter.subpython;
 
-import java.util.ArrayList;
+import static interpreter.subpython.Operators.*;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 class Interpreter extends RuntimeException { 
 
-    final Environment global = new Environment();
-    private Environment environment = global;
+    // Global name -> slot, filled in by the Resolver across REPL lines.
+    final Map<String, Integer> globalSlots = new HashMap<>();
+    private Object[] globals = new Object[0];
+    // Slots of the running function, or the globals for top-level code.
+    private Object[] frame = globals;
+    // Where print writes, and where a runtime error is reported.
+    Output output = Output.STDOUT;
+    Errors errors;
+
+    // How a statement completed. Statements return one of these instead of throwing,
+    // and the value of a return is left in returnValue for the call to pick up.
+    private static final int NORMAL = 0;
+    private static final int BREAK = 1;
+    private static final int CONTINUE = 2;
+    private static final int RETURN = 3;
+    private Object returnValue;
 
     public void interpreter(List<Stmt> statments){
+        if (globals.length < globalSlots.size()) {
+            int previous = globals.length;
+            globals = Arrays.copyOf(globals, Math.max(globalSlots.size(), previous * 2));
+            Arrays.fill(globals, previous, globals.length, UNDEFINED);
+        }
+        frame = globals;
         try{
             for(Stmt statement : statments){
                 evaluate(statement);
             }
         } catch (RuntimeError error){
-            Subpython.error(error.token, error.getMessage());
+            errors.error(error.token, error.getMessage());
+        } finally {
+            unwound();
+            output.flush();
         }
     }
     
-    private String stringify(Object object) {
-        if (object == null) return "None";
-        if (object instanceof List<?> listt) {
-            StringBuilder builder = new StringBuilder("[");
-            List<?> list = listt;
-            for (int i = 0; i < list.size(); i++) {
-                builder.append(stringify(list.get(i)));
-                if (i != list.size() - 1) {
-                    builder.append(", ");
-                }
-            }
-            builder.append("]");
-            return builder.toString();
-        }
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
-        return object.toString();
-    }
-
-    public void evaluate(Stmt stmt) {
+    // Hooks for --profile, which overrides them. Unless that subclass is loaded,
+    // the JIT sees these empty bodies and drops the calls.
+    void statement(Stmt stmt) {}
+    void entered(Function function) {}
+    void exited() {}
+    void unwound() {}
+
+    // Returns how the statement completed: NORMAL, BREAK, CONTINUE or RETURN.
+    public int evaluate(Stmt stmt) {
+        statement(stmt);
         switch (stmt) {
             case Stmt.Expression expression -> evaluateExprStmt(expression.expression);
-            case Stmt.Print print -> evaluatePrintStmt(print.expression);
+            case Stmt.Print print -> evaluatePrintStmt(print.expressions);
             case Stmt.Assignment assignment -> evaluateAssignStmt(assignment);
-            case Stmt.Block block -> evaluateBlockStmt(block,new Environment(environment));
-            case Stmt.If ifStmt -> evaluateIfStmt(ifStmt);
-            case Stmt.While whileStmt -> evaluateWhileStmt(whileStmt);
-            case Stmt.For forStmt -> evaluateForStmt(forStmt);
-            case Stmt.ForIterable forIterable -> evaluateForIterable(forIterable);
+            case Stmt.Block block -> {
+                return evaluateBlockStmt(block.statements);
+            }
+            case Stmt.If ifStmt -> {
+                return evaluateIfStmt(ifStmt);
+            }
+            case Stmt.While whileStmt -> {
+                return evaluateWhileStmt(whileStmt);
+            }
+            case Stmt.For forStmt -> {
+                return evaluateForStmt(forStmt);
+            }
+            case Stmt.ForIterable forIterable -> {
+                return evaluateForIterable(forIterable);
+            }
             case Stmt.Function function -> evaluateFunctionStmt(function);
-            case Stmt.Return returnStmt -> evaluateReturnStmt(returnStmt);
+            case Stmt.Return returnStmt -> {
+                return evaluateReturnStmt(returnStmt);
+            }
+            case Stmt.Break breakStmt -> {
+                return BREAK;
+            }
+            case Stmt.Continue continueStmt -> {
+                return CONTINUE;
+            }
             default -> {
             }
         }
+        return NORMAL;
     }
 
-    private void evaluateReturnStmt(Stmt.Return returnStmt) {
+    private int evaluateReturnStmt(Stmt.Return returnStmt) {
         Object value = null;
         if(returnStmt.value != null){
             value = evaluateExprStmt(returnStmt.value);
         }
-        throw new Return(value);
+        returnValue = value;
+        return RETURN;
     }
 
     private void evaluateFunctionStmt(Stmt.Function stmt) {
         Function function = new Function(stmt);
-        environment.define(function.name.lexeme, function);
+        assign(stmt.depth, stmt.slot, function);
+    }
+
+    // Whether a loop body's completion ends the loop. A break ends the loop itself;
+    // a return ends it and keeps propagating out of the function.
+    private boolean exitsLoop(int completion) {
+        return completion == BREAK || completion == RETURN;
+    }
+
+    private int afterLoop(int completion) {
+        return completion == RETURN ? RETURN : NORMAL;
     }
 
-    private void evaluateForIterable(Stmt.ForIterable forIterableStmt){
+    private int evaluateForIterable(Stmt.ForIterable forIterableStmt){
         Object iterable = evaluateExprStmt(forIterableStmt.iterable);
-        String name = forIterableStmt.name.lexeme;
+        int depth = forIterableStmt.depth;
+        int slot = forIterableStmt.slot;
 
-        if(!(iterable instanceof List<?> || iterable instanceof String)){
+        if(!(iterable instanceof List<?> || isString(iterable) || iterable instanceof Range)){
             throw new RuntimeError(forIterableStmt.name, "Only lists and strings can be iterated over.");
         }
 
+        int completion = NORMAL;
         switch (iterable) {
+            case Range range -> {
+                long value = range.start;
+                for (long i = 0; i < range.length; i++, value += range.step){
+                    assign(depth, slot, value);
+                    completion = evaluate(forIterableStmt.body);
+                    if (exitsLoop(completion)) break;
+                }
+            }
+            case ListValue list -> {
+                // By index, so that each element is read from the list's storage as it is now.
+                for (int i = 0; i < list.size(); i++){
+                    assign(depth, slot, list.get(i));
+                    completion = evaluate(forIterableStmt.body);
+                    if (exitsLoop(completion)) break;
+                }
+            }
             case List<?> list -> {
                 for (Object element : list){
-                    environment.define(name, element);
-                    evaluate(forIterableStmt.body);
+                    assign(depth, slot, element);
+                    completion = evaluate(forIterableStmt.body);
+                    if (exitsLoop(completion)) break;
                 }
             }
-            case String string -> {
+            case CharSequence string -> {
                 for (int i = 0; i < string.length(); i++){
-                    environment.define(name, string.charAt(i));
-                    evaluate(forIterableStmt.body);
+                    assign(depth, slot, character(string.charAt(i)));
+                    completion = evaluate(forIterableStmt.body);
+                    if (exitsLoop(completion)) break;
                 }
             }
             default -> {
             }
         }
+        return afterLoop(completion);
     }
 
-    private void evaluateForStmt(Stmt.For forStmt){
+    private int evaluateForStmt(Stmt.For forStmt){
         Object start = forStmt.start;
         Object end = forStmt.end;
         Object step = forStmt.step;
@@ -109,110 +171,123 @@ class Interpreter extends RuntimeException {
         }
         if(end == null){
             end = evaluateExprStmt(forStmt.start);
-            start = 0.0;
+            start = 0L;
         }
         if(step == null){
-            step = 1.0;
+            step = 1L;
         }
         else{
             step = evaluateExprStmt(forStmt.step);
         }
-        
-        String name = forStmt.name.lexeme;
+        if (!(start instanceof Long && end instanceof Long && step instanceof Long)) {
+            throw new RuntimeError(forStmt.name, "Range arguments must be integers.");
+        }
 
-        for (double i = (double) start; i < (double) end; i += (double) step){
-            environment.define(name, i);
-            evaluate(forStmt.body);
+        int depth = forStmt.depth;
+        int slot = forStmt.slot;
+
+        // Counted, so that negative steps work and the counter can't wrap around.
+        long by = (long) step;
+        long count = Range.length(forStmt.name, (long) start, (long) end, by);
+        int completion = NORMAL;
+        for (long i = (long) start; count > 0; count--, i += by){
+            assign(depth, slot, i);
+            completion = evaluate(forStmt.body);
+            if (exitsLoop(completion)) break;
         }
+        return afterLoop(completion);
     }
 
-    private void evaluateWhileStmt(Stmt.While whileStmt) {
+    private int evaluateWhileStmt(Stmt.While whileStmt) {
+        int completion = NORMAL;
         while(isTruthy(evaluateExprStmt(whileStmt.condition))){
-            evaluate(whileStmt.body);
+            completion = evaluate(whileStmt.body);
+            if (exitsLoop(completion)) break;
         }
+        return afterLoop(completion);
     }
 
-    private void evaluateIfStmt(Stmt.If ifStmt) {
+    private int evaluateIfStmt(Stmt.If ifStmt) {
         int conditions = ifStmt.condition.size();
         for (int i = 0; i < conditions; i++){ 
             if(isTruthy(evaluateExprStmt(ifStmt.condition.get(i)))){
-                evaluate(ifStmt.thenBranch.get(i));
-                return;
+                return evaluate(ifStmt.thenBranch.get(i));
             }
         }
         if(ifStmt.elseBranch != null){
-            evaluate(ifStmt.elseBranch);
+            return evaluate(ifStmt.elseBranch);
         }
+        return NORMAL;
     }
 
-    private void evaluatePrintStmt(Expr expression) {
-        Object value = evaluateExprStmt(expression);
-        System.out.println(stringify(value));
+    // All the values are evaluated before any is written, since evaluating one may print.
+    private void evaluatePrintStmt(List<Expr> expressions) {
+        if (expressions.size() == 1) {
+            write(output, borrow(expressions.get(0)));
+        } else {
+            Object[] values = new Object[expressions.size()];
+            int borrowed = Optimizer.firstBorrowed(expressions);
+            for (int i = 0; i < values.length; i++) {
+                Expr expression = expressions.get(i);
+                values[i] = i < borrowed ? evaluateExprStmt(expression) : borrow(expression);
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) output.write(' ');
+                write(output, values[i]);
+            }
+        }
+        output.newline();
     }
 
     private void evaluateAssignStmt(Stmt.Assignment assignment) {
         try {
             Object value = assignment.initializer;
-            if(value != null){
+            // s = s + t on a string appends to it in place where possible.
+            Object current = (assignment.depth == 0 ? frame : globals)[assignment.slot];
+            Expr appended = isString(current) ? Optimizer.appended(assignment) : null;
+            if (appended != null) {
+                value = append(((Expr.Binary) value).operator, current, evaluateExprStmt(appended));
+            } else if(value != null){
                 value = evaluateExprStmt(assignment.initializer);
             }
-            environment.define(assignment.name.lexeme, value);
+            assign(assignment.depth, assignment.slot, value);
         } catch (RuntimeError error) {
             throw new RuntimeError(assignment.name, error.getMessage());
         }
     }
 
-    private void evaluateBlockStmt(Stmt.Block block, Environment environment) {
-        Environment previous = this.environment;
+    private int evaluateBlockStmt(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            int completion = evaluate(statement);
+            if (completion != NORMAL) return completion;
+        }
+        return NORMAL;
+    }
+
+    // Variables
 
-        try {
-            this.environment = environment;
-            for (Stmt statement : block.statements) {
-                evaluate(statement);
-            }
-        } finally {
-            this.environment = previous;
+    private Object lookUp(int depth, int slot, Token name) {
+        Object value = (depth == 0 ? frame : globals)[slot];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
         }
+        return value;
+    }
+
+    private void assign(int depth, int slot, Object value) {
+        (depth == 0 ? frame : globals)[slot] = value;
     }
 
     private Object evaluateAssignStmt(Expr.Assignment expr) {
         Object value = evaluateExprStmt(expr.value); // Recursively evaluate RHS
         if(expr.index != null){
             Object index = evaluateExprStmt(expr.index);
-            Object variable = environment.get(expr.name);
-            if (variable instanceof List<?> list) {
-                if (!(index instanceof Double)) {
-                    throw new RuntimeError(expr.name, "Index must be a number.");
-                }
-                int i = ((Double) index).intValue();
-                if (i < 0 || i >= list.size()) {
-                    throw new RuntimeError(expr.name, "Index out of bounds.");
-                }
-                
-                // Update the list without casting
-                @SuppressWarnings("unchecked")
-                List<Object> typedList = (List<Object>) list;
-                typedList.set(i, value);
-                return value;
-            } else if (variable instanceof String string) {
-                if(((String)value).length() != 1){
-                    throw new RuntimeError(expr.name, "Assignment to string index must be a single character.");
-                }
-                if (!(index instanceof Double)) {
-                    throw new RuntimeError(expr.name, "Index must be a number.");
-                }
-                int i = ((Double) index).intValue();
-                if (i < 0 || i >= string.length()) {
-                    throw new RuntimeError(expr.name, "Index out of bounds.");
-                }
-
-                string = string.substring(0, i) + value + string.substring(i + 1);
-                environment.define(expr.name.lexeme, string);
-                return string;
-            }
-
+            Object variable = lookUp(expr.depth, expr.slot, expr.name);
+            Object updated = setIndex(expr.name, variable, index, value);
+            if (updated != variable) assign(expr.depth, expr.slot, updated);
+            return value;
         }
-        environment.define(expr.name.lexeme, value); // Store the evaluated value in environment
+        assign(expr.depth, expr.slot, value); // Store the evaluated value in its slot
         return value;
     }
 
@@ -231,7 +306,7 @@ class Interpreter extends RuntimeException {
                 return evaluateUnaryExpr(unary);
             }
             case Expr.Variable variable -> {
-                return environment.get(variable.name);
+                return share(lookUp(variable.depth, variable.slot, variable.name));
             }
             case Expr.Assignment assignment -> {
                 return evaluateAssignStmt(assignment);
@@ -251,6 +326,9 @@ class Interpreter extends RuntimeException {
             case Expr.Call call -> {
                 return evaluateCallExpr(call);
             }
+            case Expr.Builtin builtin -> {
+                return evaluateBuiltinExpr(builtin);
+            }
             default -> {
                 
             }
@@ -258,110 +336,138 @@ class Interpreter extends RuntimeException {
         return null;
     }
 
-    // Truthy
-    private boolean isTruthy(Object right) {
-        if (right == null) return false;
-        if (right instanceof Boolean) return (boolean) right;
-        if (right instanceof Double) return (double) right != 0;
-        return true;
-    }
-    
-    // Errors
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
-
     // Evaluators
     
 
     private Object evaluateTupleExpr(Expr.Tuple_ tuple){
-        List<Object> evalutedElements = new ArrayList<>();
-
-        for (Expr element : (List<Expr>) tuple.elements){
-            evalutedElements.add(evaluateExprStmt(element));
+        Object[] elements = new Object[tuple.elements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = evaluateExprStmt(tuple.elements.get(i));
         }
-        return evalutedElements;
+        return Tuple.of(elements);
     }
 
     private Object evaluateCallExpr(Expr.Call call){
-        Environment localEnvironment = new Environment(global);
-        Object calle = environment.get(call.identifier);
-        Function function = (Function) calle;
-        List<Token> params = function.params;
-        List<Expr> arguments = call.arguments;
-        if(function.arity() != arguments.size()){
-            throw new RuntimeError(call.identifier, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        // The call site caches the function it last called. While the variable still
+        // holds that function, lookup and checks are skipped; redefining it misses.
+        Function function = call.target;
+        if (function == null || (call.depth == 0 ? frame : globals)[call.slot] != function) {
+            function = bindCall(call);
         }
+        List<Expr> arguments = call.arguments;
+        if (function.memo != null) return callMemoized(function, arguments);
+        Object[] locals = new Object[function.localCount];
         for (int i = 0; i < function.arity(); i++){
-            localEnvironment.define(params.get(i).lexeme, evaluateExprStmt(arguments.get(i)));
-        }
-        try {
-            evaluateBlockStmt(new Stmt.Block(function.body), localEnvironment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            locals[i] = evaluateExprStmt(arguments.get(i));
         }
-        return null;
+        Arrays.fill(locals, function.arity(), locals.length, UNDEFINED);
+        return invoke(function, locals);
     }
 
-    private Object evaluateIndexExpr(Expr.Index expr){
-        Object value = environment.get(expr.identifier);
-        
-        if(!(value instanceof List<?> || value instanceof String)){
-            throw new RuntimeError(expr.identifier, "Only lists and strings can be indexed.");
+    // The arguments are looked up in the function's result cache before a frame
+    // is set up for them, which only happens on a miss.
+    private Object callMemoized(Function function, List<Expr> arguments) {
+        Object[] values = new Object[function.arity()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluateExprStmt(arguments.get(i));
         }
-        
-        Object start = evaluateExprStmt(expr.start);
-        Object end = expr.end == null ? null : evaluateExprStmt(expr.end);
-        Object step = expr.step == null ? 1.0 : evaluateExprStmt(expr.step);
+        Memo memo = function.memo;
+        Object key = Memo.key(values);
+        if (key == null) {
+            memo.bypassed();
+        } else {
+            Object cached = memo.get(key);
+            if (cached != Memo.MISSING) return cached;
+        }
+        Object[] locals = Arrays.copyOf(values, function.localCount);
+        Arrays.fill(locals, values.length, locals.length, UNDEFINED);
+        Object value = invoke(function, locals);
+        if (key != null) memo.put(key, value);
+        return value;
+    }
 
-        // Ensure that start, end, and step are numeric
-        if (!(start instanceof Double) || (end != null && !(end instanceof Double)) || !(step instanceof Double)) {
-            throw new RuntimeError(expr.identifier, "Start, end, and step values must be numbers.");
+    private Object invoke(Function function, Object[] locals) {
+        // A runtime error abandons the whole run, and interpreter() starts again from
+        // the globals, so the frame needs no restoring on that path.
+        Object[] previous = frame;
+        frame = locals;
+        entered(function);
+        Events.FunctionCall event = Events.beginCall();
+        Object value = null;
+        if (evaluateBlockStmt(function.body) == RETURN) {
+            value = returnValue;
+            returnValue = null;
         }
+        if (event != null) Events.endCall(event, function);
+        exited();
+        frame = previous;
+        return value;
+    }
 
-        int startIndex = ((Double) start).intValue();
-        int endIndex = end == null ? startIndex+1 : ((Double) end).intValue();
-        int stepValue = ((Double) step).intValue();
+    private Object evaluateBuiltinExpr(Expr.Builtin builtin) {
+        List<Expr> arguments = builtin.arguments;
+        if (builtin.name.type == TokenType.LEN) {
+            return length(builtin.name, borrow(arguments.get(0)));
+        }
+        if (builtin.name.type == TokenType.PMAP) {
+            Object function = evaluateExprStmt(arguments.get(0));
+            return Parallel.map(builtin.name, function, evaluateExprStmt(arguments.get(1)), this::fork);
+        }
+        Object start = arguments.size() == 1 ? 0L : evaluateExprStmt(arguments.get(0));
+        Object end = evaluateExprStmt(arguments.get(arguments.size() == 1 ? 0 : 1));
+        Object step = arguments.size() == 3 ? evaluateExprStmt(arguments.get(2)) : 1L;
+        return range(builtin.name, start, end, step);
+    }
 
-        if(value instanceof List<?> list){
-            int size = list.size();
-            if(startIndex < 0 || startIndex >= size || endIndex > size){
-                throw new RuntimeError(expr.identifier, "Index out of bounds.");
-            }
-            List<Object> subList = new ArrayList<>();
-            for (int i = startIndex; i < endIndex; i += stepValue){
-                subList.add(list.get(i));
-            }
-            if(subList.size() == 1){
-                return subList.get(0);
-            }
-            return subList;
+    private Function bindCall(Expr.Call call) {
+        Object callee = lookUp(call.depth, call.slot, call.identifier);
+        if (!(callee instanceof Function function)) {
+            throw new RuntimeError(call.identifier, "Can only call functions.");
         }
-        else if(value instanceof String string){
-            int size = string.length();
-            if(startIndex < 0 || startIndex >= size || endIndex > size){
-                throw new RuntimeError(expr.identifier, "Index out of bounds.");
-            }
-            StringBuilder subString = new StringBuilder();
-            for (int i = startIndex; i < endIndex; i += stepValue){
-                subString.append(string.charAt(i));
-            }
-            return subString.toString();
+        if(function.arity() != call.arguments.size()){
+            throw new RuntimeError(call.identifier, "Expected " + function.arity() + " arguments but got " + call.arguments.size() + ".");
         }
-        // else if(value instanceof Double){
-        //     throw new RuntimeError(expr.identifier, "Cannot index a number.");
-        // }
-        return null;
+        call.target = function;
+        return function;
+    }
+
+    // A worker for pmap: an interpreter with frames of its own that shares the
+    // globals, which the Resolver has made sure the mapped function only reads.
+    private Parallel.Worker fork() {
+        Interpreter worker = new Interpreter();
+        worker.globals = globals;
+        worker.frame = globals;
+        return (function, argument) -> {
+            Object[] locals = new Object[function.localCount];
+            locals[0] = argument;
+            Arrays.fill(locals, 1, locals.length, UNDEFINED);
+            return worker.invoke(function, locals);
+        };
+    }
+
+    // A variable read for a value that is used up before anything else can write
+    // to it, as the compiler's BORROW_LOCAL and BORROW_GLOBAL: a string buffer in
+    // it stays unshared, so the next write needn't copy it.
+    private Object borrow(Expr expr) {
+        if (expr instanceof Expr.Variable variable) return lookUp(variable.depth, variable.slot, variable.name);
+        return evaluateExprStmt(expr);
+    }
+
+    private Object evaluateIndexExpr(Expr.Index expr){
+        Object value = lookUp(expr.depth, expr.slot, expr.identifier);
+        // As on the VM, the string is only borrowed if nothing below can write to it.
+        if (value instanceof MutableString && !(Optimizer.isPure(expr.start)
+                && Optimizer.isPure(expr.end) && Optimizer.isPure(expr.step))) {
+            share(value);
+        }
+        Object start = evaluateExprStmt(expr.start);
+        Object end = expr.end == null ? null : evaluateExprStmt(expr.end);
+        Object step = expr.step == null ? null : evaluateExprStmt(expr.step);
+        return index(expr.identifier, value, start, end, step);
     }
 
     public Object evaluateListExpr(Expr.List_ expr) {
-        List<Object> evalutedElements = new ArrayList<>();
+        List<Object> evalutedElements = new ListValue(expr.elements.size());
 
         for (Expr element : (List<Expr>) expr.elements){
             evalutedElements.add(evaluateExprStmt(element));
@@ -389,92 +495,104 @@ class Interpreter extends RuntimeException {
 
     public Object evaluateUnaryExpr(Expr.Unary expr) {
         Object right = evaluateExprStmt(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS -> {
-                checkNumberOperand(expr.operator, right);
-                return -(double) right;
-            }
-            case BANG -> {
-                return !isTruthy(right);
-            }
-        }
-        return null; // or throw an error if you prefer
+        return unary(expr.operator, right);
     }
 
-    private boolean isEqual(Object left, Object right) {
-        if (left == null && right == null) return true;
-        if (left == null) return false;
-        return left.equals(right);
-    }
+    // Binary nodes specialize themselves to the operand types they see. A node
+    // starts UNINITIALIZED and settles on the types of its first operands; after
+    // that it only checks they still match. The first time they don't, the node
+    // goes GENERIC for good and uses the full Operators.binary from then on.
+    private static final int UNINITIALIZED = 0;
+    private static final int LONGS = 1;
+    private static final int DOUBLES = 2;   // floats, or a float and a Long
+    private static final int STRINGS = 3;   // +, == and != only
+    private static final int GENERIC = 4;
 
     public Object evaluateBinaryExpr(Expr.Binary expr){
-        Object left = evaluateExprStmt(expr.left);
-        Object right = evaluateExprStmt(expr.right);
-
-        switch (expr.operator.type){
-            case MINUS -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left - (double) right;
-            }
-            case PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
-                }
-                if (left instanceof String && right instanceof Double) {
-                    return (String) left + stringify(right);
-                }
-                if (left instanceof Double && right instanceof String) {
-                    return stringify(left) + (String) right;
-                }
-                throw new RuntimeError(expr.operator,"Operands must be two numbers or two strings.");
-            }
-            case SLASH -> {
-                checkNumberOperands(expr.operator, left,right);
-                if((double) right == 0){
-                    throw new RuntimeError(expr.operator, "Division by zero.");
+        Object left;
+        Object right;
+        if (!Optimizer.inspects(expr.operator)) {
+            left = evaluateExprStmt(expr.left);
+            right = evaluateExprStmt(expr.right);
+        } else {
+            left = expr.left instanceof Expr.Variable && Optimizer.isPure(expr.right)
+                    ? borrow(expr.left) : evaluateExprStmt(expr.left);
+            right = borrow(expr.right);
+        }
+        switch (expr.state) {
+            case LONGS -> {
+                if (left instanceof Long a && right instanceof Long b) return longBinary(expr.operator, a, b);
+            }
+            case DOUBLES -> {
+                if (left instanceof Double a) {
+                    if (right instanceof Double b) return doubleBinary(expr.operator, a, b);
+                    if (right instanceof Long b) return doubleBinary(expr.operator, a, b);
+                } else if (left instanceof Long a && right instanceof Double b) {
+                    return doubleBinary(expr.operator, a, b);
                 }
-                return (double) left / (double) right;
-            }
-            case STAR -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left * (double) right;
-            }
-            case GREATER -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left > (double) right;
-            }
-            case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left >= (double) right;
             }
-            case LESS -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left < (double) right;
+            case STRINGS -> {
+                if (left instanceof String a && right instanceof String b) return stringBinary(expr.operator, a, b);
             }
-            case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left <= (double) right;
+            case GENERIC -> {
+                return binary(expr.operator, left, right);
             }
-            case BANG_EQUAL -> {
-                return !isEqual(left, right);
-            }
-            case EQUAL_EQUAL -> {
-                return isEqual(left, right);
-            }
-            case POW -> {
-                checkNumberOperands(expr.operator, left,right);
-                return Math.pow((double) left, (double) right);
+            default -> {
+                expr.state = specialize(expr.operator, left, right);
+                return binary(expr.operator, left, right);
             }
-            case MOD -> {
-                checkNumberOperands(expr.operator, left,right);
-                return (double) left % (double) right;
+        }
+        expr.state = GENERIC;
+        return binary(expr.operator, left, right);
+    }
+
+    private static int specialize(Token operator, Object left, Object right) {
+        if (operator.type == TokenType.IN) return GENERIC;
+        if (left instanceof Long && right instanceof Long) return LONGS;
+        if ((left instanceof Double || right instanceof Double)
+                && (left instanceof Double || left instanceof Long)
+                && (right instanceof Double || right instanceof Long)) {
+            return DOUBLES;
+        }
+        if (left instanceof String && right instanceof String) {
+            switch (operator.type) {
+                case PLUS, EQUAL_EQUAL, BANG_EQUAL -> {
+                    return STRINGS;
+                }
+                default -> {
+                }
             }
         }
-        return null; // or throw an error if you prefer
+        return GENERIC;
+    }
+
+    private static Object longBinary(Token operator, long a, long b) {
+        return switch (operator.type) {
+            case GREATER -> a > b;
+            case GREATER_EQUAL -> a >= b;
+            case LESS -> a < b;
+            case LESS_EQUAL -> a <= b;
+            case EQUAL_EQUAL -> a == b;
+            case BANG_EQUAL -> a != b;
+            default -> arithmetic(operator, a, b);
+        };
+    }
+
+    private static Object doubleBinary(Token operator, double a, double b) {
+        return switch (operator.type) {
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> compare(operator, a, b);
+            case EQUAL_EQUAL -> a == b;
+            case BANG_EQUAL -> a != b;
+            default -> arithmetic(operator, a, b);
+        };
+    }
+
+    private static Object stringBinary(Token operator, String a, String b) {
+        return switch (operator.type) {
+            case EQUAL_EQUAL -> a.equals(b);
+            case BANG_EQUAL -> !a.equals(b);
+            default -> a + b;
+        };
     }
     
 
@@ -0,0 +1,247 @@
+package interpreter.subpython;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// A list value. Its elements are items[offset], items[offset + step], ... so a
+// slice can share the items of the list it was taken from instead of copying
+// them. Both then have `shared` set, and whichever of them is written to first
+// copies its own elements out before the write, so each keeps its old contents.
+//
+// `items` is stored according to a strategy chosen by the first element: a
+// long[] while every element is a 64-bit int, a double[] while every element is
+// a float, a String[] while every element is a string, and an Object[] once an
+// element of any other kind arrives. Lists never go back to a narrower strategy.
+final class ListValue extends AbstractList<Object> implements RandomAccess {
+    static final int EMPTY = 0;     // no element stored yet, items is null
+    static final int LONGS = 1;
+    static final int DOUBLES = 2;
+    static final int STRINGS = 3;
+    static final int OBJECTS = 4;
+
+    private int strategy;
+    private Object items;
+    private int offset;
+    private int step;
+    private int size;
+    private int capacity;   // for the first array, while EMPTY
+    private boolean shared; // when false, offset is 0 and step is 1
+
+    ListValue(int capacity) {
+        this.capacity = capacity;
+        step = 1;
+    }
+
+    private ListValue(int strategy, Object items, int offset, int step, int size) {
+        this.strategy = strategy;
+        this.items = items;
+        this.offset = offset;
+        this.step = step;
+        this.size = size;
+        this.shared = true;
+    }
+
+    // The `count` elements of `list` from `start`, `step` apart.
+    static ListValue slice(List<?> list, int start, int step, int count) {
+        if (list instanceof ListValue source) {
+            source.shared = true;
+            return new ListValue(source.strategy, source.items, source.offset + start * source.step,
+                    source.step * step, count);
+        }
+        ListValue copy = new ListValue(count);
+        for (int i = 0; i < count; i++) copy.add(list.get(start + i * step));
+        return copy;
+    }
+
+    int strategy() {
+        return strategy;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        Objects.checkIndex(index, size);
+        return load(offset + index * step);
+    }
+
+    // Unboxed reads, for a list known to hold LONGS or DOUBLES.
+    long getLong(int index) {
+        Objects.checkIndex(index, size);
+        return ((long[]) items)[offset + index * step];
+    }
+
+    double getDouble(int index) {
+        Objects.checkIndex(index, size);
+        return ((double[]) items)[offset + index * step];
+    }
+
+    // Returns null rather than the previous element, which nothing here uses and
+    // which would have to be boxed.
+    @Override
+    public Object set(int index, Object element) {
+        Objects.checkIndex(index, size);
+        if (!fits(element)) {
+            generalize(size);
+        } else if (shared) {
+            unshare(size);
+        }
+        store(index, element);
+        return null;
+    }
+
+    // Unboxed writes; false, with nothing written, if the list doesn't hold that kind.
+    boolean setLong(int index, long value) {
+        if (strategy != LONGS) return false;
+        Objects.checkIndex(index, size);
+        if (shared) unshare(size);
+        ((long[]) items)[index] = value;
+        return true;
+    }
+
+    boolean setDouble(int index, double value) {
+        if (strategy != DOUBLES) return false;
+        Objects.checkIndex(index, size);
+        if (shared) unshare(size);
+        ((double[]) items)[index] = value;
+        return true;
+    }
+
+    @Override
+    public boolean add(Object element) {
+        if (strategy == EMPTY) {
+            strategy = strategyOf(element);
+            items = newArray(strategy, Math.max(capacity, 8));
+        } else if (!fits(element)) {
+            generalize(Math.max(8, size * 2));
+        } else if (shared || size == length(items)) {
+            unshare(Math.max(8, size * 2));
+        }
+        store(size++, element);
+        return true;
+    }
+
+    // A list never equals a tuple, even one with the same elements.
+    @Override
+    public boolean equals(Object other) {
+        return !(other instanceof Tuple) && super.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    // Writes the list as print shows it, reading numbers straight from their arrays.
+    void write(Output out) {
+        out.write('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) out.write(", ");
+            int at = offset + i * step;
+            switch (strategy) {
+                case LONGS -> out.write(((long[]) items)[at]);
+                case DOUBLES -> Operators.writeFloat(out, ((double[]) items)[at]);
+                default -> Operators.write(out, load(at));
+            }
+        }
+        out.write(']');
+    }
+
+    // Strategies
+
+    private static int strategyOf(Object element) {
+        if (element instanceof Long) return LONGS;
+        if (element instanceof Double) return DOUBLES;
+        if (Operators.isString(element)) return STRINGS;
+        return OBJECTS;
+    }
+
+    private boolean fits(Object element) {
+        return switch (strategy) {
+            case LONGS -> element instanceof Long;
+            case DOUBLES -> element instanceof Double;
+            case STRINGS -> Operators.isString(element);
+            default -> true;
+        };
+    }
+
+    private static Object newArray(int strategy, int length) {
+        Events.allocated("list", length);
+        return switch (strategy) {
+            case LONGS -> new long[length];
+            case DOUBLES -> new double[length];
+            case STRINGS -> new String[length];
+            default -> new Object[length];
+        };
+    }
+
+    private int length(Object array) {
+        return switch (strategy) {
+            case LONGS -> ((long[]) array).length;
+            case DOUBLES -> ((double[]) array).length;
+            case STRINGS -> ((String[]) array).length;
+            default -> ((Object[]) array).length;
+        };
+    }
+
+    private Object load(int at) {
+        return switch (strategy) {
+            case LONGS -> ((long[]) items)[at];
+            case DOUBLES -> ((double[]) items)[at];
+            case STRINGS -> ((String[]) items)[at];
+            default -> ((Object[]) items)[at];
+        };
+    }
+
+    // Only into storage of this list's own, where offset is 0 and step is 1.
+    private void store(int index, Object element) {
+        switch (strategy) {
+            case LONGS -> ((long[]) items)[index] = (Long) element;
+            case DOUBLES -> ((double[]) items)[index] = (Double) element;
+            // A string buffer or view is stored as the string it holds now.
+            case STRINGS -> ((String[]) items)[index] = element.toString();
+            default -> ((Object[]) items)[index] = element;
+        }
+    }
+
+    // Copies the elements into an array of this list's own.
+    private void unshare(int capacity) {
+        Object copy = newArray(strategy, Math.max(capacity, size));
+        if (step == 1) {
+            System.arraycopy(items, offset, copy, 0, size);
+        } else {
+            switch (strategy) {
+                case LONGS -> {
+                    for (int i = 0; i < size; i++) ((long[]) copy)[i] = ((long[]) items)[offset + i * step];
+                }
+                case DOUBLES -> {
+                    for (int i = 0; i < size; i++) ((double[]) copy)[i] = ((double[]) items)[offset + i * step];
+                }
+                default -> {
+                    for (int i = 0; i < size; i++) ((Object[]) copy)[i] = ((Object[]) items)[offset + i * step];
+                }
+            }
+        }
+        items = copy;
+        offset = 0;
+        step = 1;
+        shared = false;
+    }
+
+    // Moves the elements into an Object[] so that any element can be stored.
+    private void generalize(int capacity) {
+        Object[] copy = new Object[Math.max(capacity, size)];
+        Events.allocated("list", copy.length);
+        for (int i = 0; i < size; i++) copy[i] = load(offset + i * step);
+        strategy = OBJECTS;
+        items = copy;
+        offset = 0;
+        step = 1;
+        shared = false;
+    }
+}
@@ -0,0 +1,102 @@
+package interpreter.subpython;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The result cache of a function defined under @memo. Results are keyed by the
+// argument values and the least recently used one is evicted once the cache
+// holds `capacity`. The Resolver only lets pure functions be memoized, so a
+// cached result can stand in for running the body.
+//
+// Only values that cannot change make keys and results: numbers, booleans,
+// None, strings, ranges, functions and tuples of those. A call with a list
+// argument runs the body uncached, and a list result is not kept, since either
+// could be changed behind the cache's back.
+final class Memo {
+    static final int DEFAULT_CAPACITY = 128;
+    // What get returns for arguments without a cached result.
+    static final Object MISSING = new Object();
+    // The key of a call without arguments, or with None as its only one.
+    private static final Object NO_KEY = new Object();
+
+    final int capacity;
+    private final LinkedHashMap<Object, Object> results;
+    private long hits;
+    private long misses;
+
+    Memo(int capacity) {
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                return size() > Memo.this.capacity;
+            }
+        };
+    }
+
+    // The key for a call's arguments, or null when one of them can change.
+    static Object key(Object[] arguments) {
+        if (arguments.length == 0) return NO_KEY;
+        if (arguments.length == 1) {
+            Object argument = arguments[0];
+            return argument == null ? NO_KEY : keyOf(argument);
+        }
+        Object[] elements = new Object[arguments.length];
+        for (int i = 0; i < elements.length; i++) {
+            Object element = keyOf(arguments[i]);
+            if (element == null && arguments[i] != null) return null;
+            elements[i] = element;
+        }
+        return Tuple.of(elements);
+    }
+
+    // A string buffer is keyed by its contents, which equal those of the String.
+    private static Object keyOf(Object value) {
+        return switch (value) {
+            case null -> null;
+            case Long number -> number;
+            case BigInteger number -> number;
+            case Double number -> number;
+            case Boolean bool -> bool;
+            case String string -> string;
+            case MutableString string -> string.toString();
+            case StringView string -> string.toString();
+            case Range range -> range;
+            case Function function -> function;
+            case Tuple tuple -> {
+                // Elements are kept as they are, so a string buffer in one disqualifies it.
+                for (Object element : tuple) {
+                    if (keyOf(element) != element) yield null;
+                }
+                yield tuple;
+            }
+            default -> null;
+        };
+    }
+
+    synchronized Object get(Object key) {
+        Object result = results.getOrDefault(key, MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    synchronized void put(Object key, Object result) {
+        if (result != null && keyOf(result) == null) return;
+        results.put(key, result instanceof CharSequence string ? string.toString() : result);
+    }
+
+    // A call that could not be looked up, because of a list argument.
+    synchronized void bypassed() {
+        misses++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hits + " hits, " + misses + " misses, " + results.size() + " of " + capacity + " entries";
+    }
+}
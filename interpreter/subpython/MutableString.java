@@ -0,0 +1,69 @@
+package interpreter.subpython;
+
+import java.util.Arrays;
+
+// A string value that can be written in place: the result of `s[i] = c` or of
+// `s = s + t`. Anywhere else it behaves like a String of the same characters.
+//
+// Strings are values, so a buffer is only written in place while its variable
+// is the only reference to it. Reading the variable as a value (rather than to
+// index or update it) marks the buffer shared, and the next write then copies
+// it into a fresh buffer first.
+final class MutableString implements CharSequence {
+    private char[] chars;
+    private int length;
+    private String string; // toString() of the current contents, or null
+    boolean shared;
+
+    MutableString(CharSequence text, int extra) {
+        length = text.length();
+        chars = new char[Math.max(16, length + extra)];
+        Events.allocated("string", chars.length);
+        if (text instanceof MutableString other) {
+            System.arraycopy(other.chars, 0, chars, 0, length);
+        } else {
+            text.toString().getChars(0, length, chars, 0);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    void setCharAt(int index, char c) {
+        chars[index] = c;
+        string = null;
+    }
+
+    void append(CharSequence text) {
+        int added = text.length();
+        if (length + added > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + added));
+            Events.allocated("string", chars.length);
+        }
+        if (text instanceof MutableString other) {
+            System.arraycopy(other.chars, 0, chars, length, added);
+        } else {
+            text.toString().getChars(0, added, chars, length);
+        }
+        length += added;
+        string = null;
+    }
+
+    @Override
+    public String toString() {
+        if (string == null) string = new String(chars, 0, length);
+        return string;
+    }
+}
@@ -0,0 +1,118 @@
+package interpreter.subpython;
+
+// Instruction set of the bytecode VM. Operands follow their opcode inline in the
+// code array; the comment lists them as (operand, ...) and the stack effect.
+final class OpCode {
+    private OpCode() {}
+
+    // Constants and stack.
+    static final int CONSTANT       = 0;   // (index)       push constants[index]
+    static final int NONE           = 1;   //               push None
+    static final int TRUE           = 2;   //               push True
+    static final int FALSE          = 3;   //               push False
+    static final int POP            = 4;   //               discard top
+
+    // Variables.
+    static final int GET_LOCAL      = 5;   // (slot)        push frame slot
+    static final int SET_LOCAL      = 6;   // (slot)        store top into frame slot, keep it
+    static final int GET_GLOBAL     = 7;   // (slot)        push global slot
+    static final int SET_GLOBAL     = 8;   // (slot)        store top into global slot, keep it
+
+    // Operators.
+    static final int ADD            = 9;   //               a b -> a + b
+    static final int SUBTRACT       = 10;  //               a b -> a - b
+    static final int MULTIPLY       = 11;  //               a b -> a * b
+    static final int DIVIDE         = 12;  //               a b -> a / b
+    static final int MODULO         = 13;  //               a b -> a % b
+    static final int POWER          = 14;  //               a b -> a ** b
+    static final int EQUAL          = 15;  //               a b -> a == b
+    static final int NOT_EQUAL      = 16;  //               a b -> a != b
+    static final int GREATER        = 17;  //               a b -> a > b
+    static final int GREATER_EQUAL  = 18;  //               a b -> a >= b
+    static final int LESS           = 19;  //               a b -> a < b
+    static final int LESS_EQUAL     = 20;  //               a b -> a <= b
+    static final int NEGATE         = 21;  //               a -> -a
+    static final int NOT            = 22;  //               a -> !a
+
+    // Control flow. Jump targets are absolute positions in the code array.
+    static final int JUMP           = 23;  // (target)
+    static final int JUMP_IF_FALSE  = 24;  // (target)      pops the condition
+    static final int JUMP_IF_FALSE_OR_POP = 25; // (target) keeps a falsey value, pops a truthy one
+    static final int JUMP_IF_TRUE_OR_POP  = 26; // (target) keeps a truthy value, pops a falsey one
+    static final int FOR_RANGE      = 27;  // (target)      counter end step -> counter' end step counter, or jump
+    static final int GET_ITER       = 28;  //               iterable -> iterator
+    static final int FOR_ITER       = 29;  // (target)      iterator -> iterator element, or jump
+
+    // Collections.
+    static final int BUILD_LIST     = 30;  // (count)       e1..en -> list
+    static final int BUILD_TUPLE    = 31;  // (count)       e1..en -> tuple
+    static final int INDEX          = 32;  //               value index -> element
+    static final int SLICE          = 33;  //               value start end step -> slice
+    static final int SET_INDEX      = 34;  //               container index value -> container
+
+    // Functions and statements.
+    static final int CALL           = 35;  // (argCount, cache) fn a1..an -> result
+    static final int RETURN         = 36;  //               value ->
+    static final int PRINT          = 37;  // (count)       v1..vn ->
+
+    // Variable stores that also pop, for assignment statements.
+    static final int STORE_LOCAL    = 38;  // (slot)        store top into frame slot
+    static final int STORE_GLOBAL   = 39;  // (slot)        store top into global slot
+
+    // Variable reads for updating the value in place (s[i] = c, s = s + t). Unlike
+    // GET, these leave a string buffer unshared.
+    static final int BORROW_LOCAL   = 40;  // (slot)        push frame slot
+    static final int BORROW_GLOBAL  = 41;  // (slot)        push global slot
+    static final int APPEND         = 42;  //               a b -> a + b, appending to a string buffer a
+
+    // Membership and builtins.
+    static final int CONTAINS       = 43;  //               a b -> a in b
+    static final int RANGE          = 44;  //               start end step -> range
+    static final int LEN            = 45;  //               value -> len(value)
+    static final int PMAP           = 46;  //               function iterable -> pmap(function, iterable)
+
+    // Functions.
+    static final int FUNCTION       = 47;  // (index)       push a copy of constants[index] with an empty result cache
+
+    static final String[] NAMES = {
+        "CONSTANT", "NONE", "TRUE", "FALSE", "POP",
+        "GET_LOCAL", "SET_LOCAL", "GET_GLOBAL", "SET_GLOBAL",
+        "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "MODULO", "POWER",
+        "EQUAL", "NOT_EQUAL", "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL",
+        "NEGATE", "NOT",
+        "JUMP", "JUMP_IF_FALSE", "JUMP_IF_FALSE_OR_POP", "JUMP_IF_TRUE_OR_POP",
+        "FOR_RANGE", "GET_ITER", "FOR_ITER",
+        "BUILD_LIST", "BUILD_TUPLE", "INDEX", "SLICE", "SET_INDEX",
+        "CALL", "RETURN", "PRINT",
+        "STORE_LOCAL", "STORE_GLOBAL",
+        "BORROW_LOCAL", "BORROW_GLOBAL", "APPEND",
+        "CONTAINS", "RANGE", "LEN", "PMAP",
+        "FUNCTION"
+    };
+
+    // Number of inline operands following each opcode.
+    static int operandCount(int op) {
+        return switch (op) {
+            case CONSTANT, GET_LOCAL, SET_LOCAL, GET_GLOBAL, SET_GLOBAL, STORE_LOCAL, STORE_GLOBAL,
+                 BORROW_LOCAL, BORROW_GLOBAL,
+                 JUMP, JUMP_IF_FALSE, JUMP_IF_FALSE_OR_POP, JUMP_IF_TRUE_OR_POP,
+                 FOR_RANGE, FOR_ITER, BUILD_LIST, BUILD_TUPLE, PRINT, FUNCTION -> 1;
+            case CALL -> 2;
+            default -> 0;
+        };
+    }
+
+    // Change in stack depth when execution falls through to the next instruction.
+    static int stackEffect(int op, int operand) {
+        return switch (op) {
+            case CONSTANT, NONE, TRUE, FALSE, GET_LOCAL, GET_GLOBAL, BORROW_LOCAL, BORROW_GLOBAL,
+                 FOR_RANGE, FOR_ITER, FUNCTION -> 1;
+            case SET_LOCAL, SET_GLOBAL, NEGATE, NOT, JUMP, GET_ITER, LEN -> 0;
+            case SLICE -> -3;
+            case SET_INDEX, RANGE -> -2;
+            case BUILD_LIST, BUILD_TUPLE -> 1 - operand;
+            case CALL, PRINT -> -operand;
+            default -> -1;
+        };
+    }
+}
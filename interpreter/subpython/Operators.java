@@ -0,0 +1,545 @@
+package interpreter.subpython;
+
+import java.math.BigInteger;
+import java.util.List;
+
+// Value semantics shared by the tree-walking Interpreter and the bytecode VM,
+// so both execution engines print and compute exactly the same results.
+//
+// Numbers are either ints or floats. An int is a Long, or a BigInteger once it
+// no longer fits in 64 bits; a BigInteger that fits is always turned back into a
+// Long, so equal ints always have the same representation. Floats are Doubles.
+final class Operators {
+
+    // Marks a global or local slot that has not been assigned yet.
+    static final Object UNDEFINED = new Object();
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private Operators() {}
+
+    static String stringify(Object object) {
+        if (object == null) return "None";
+        if (object instanceof List<?>) {
+            Output text = new Output(Output.EXIT);
+            write(text, object);
+            return text.toString();
+        }
+        if (object instanceof Double value) {
+            return stringifyFloat(value);
+        }
+        return object.toString();
+    }
+
+    // Writes the value as print shows it, without building the string first.
+    static void write(Output out, Object object) {
+        switch (object) {
+            case null -> out.write("None");
+            case Long value -> out.write((long) value);
+            case Double value -> writeFloat(out, value);
+            case String text -> out.write(text);
+            case ListValue list -> list.write(out);
+            case Tuple tuple -> {
+                out.write('(');
+                for (int i = 0; i < tuple.size(); i++) {
+                    if (i > 0) out.write(", ");
+                    write(out, tuple.get(i));
+                }
+                // A lone element needs its comma, or it reads as a parenthesized value.
+                if (tuple.size() == 1) out.write(',');
+                out.write(')');
+            }
+            case List<?> list -> {
+                out.write('[');
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) out.write(", ");
+                    write(out, list.get(i));
+                }
+                out.write(']');
+            }
+            case CharSequence text -> out.write(text);
+            default -> out.write(object.toString());
+        }
+    }
+
+    static void writeFloat(Output out, double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e16) {
+            out.write((long) value);
+            out.write(".0");
+        } else {
+            out.write(Double.toString(value));
+        }
+    }
+
+    // Floats always show a fractional part so they can be told apart from ints.
+    static String stringifyFloat(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e16) {
+            return (long) value + ".0";
+        }
+        return Double.toString(value);
+    }
+
+    // Truthy
+    static boolean isTruthy(Object right) {
+        if (right == null) return false;
+        if (right instanceof Boolean) return (boolean) right;
+        if (right instanceof Long) return (long) right != 0;
+        if (right instanceof Double) return (double) right != 0;
+        return true;
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        if (left == null && right == null) return true;
+        if (left == null) return false;
+        if (left instanceof Double && isNumber(right) || right instanceof Double && isNumber(left)) {
+            return toDouble(left) == toDouble(right);
+        }
+        if (isString(left) && isString(right) && !(left instanceof String && right instanceof String)) {
+            return CharSequence.compare((CharSequence) left, (CharSequence) right) == 0;
+        }
+        return left.equals(right);
+    }
+
+    // Strings
+
+    // A string value is a String, a MutableString once it has been written to, or
+    // a StringView when it is a slice.
+    static boolean isString(Object value) {
+        // Class tests: a CharSequence test is much slower for values that aren't one.
+        return value instanceof String || value instanceof MutableString || value instanceof StringView;
+    }
+
+    // A variable read as a value may end up anywhere, so a string buffer read that
+    // way can no longer be written in place.
+    static Object share(Object value) {
+        if (value instanceof MutableString buffer) buffer.shared = true;
+        return value;
+    }
+
+    private static final String[] CHARACTERS = new String[256];
+    static {
+        for (int c = 0; c < CHARACTERS.length; c++) CHARACTERS[c] = String.valueOf((char) c);
+    }
+
+    // One-character strings, shared for the Latin-1 range so iterating a string
+    // or indexing it one character at a time does not allocate.
+    static String character(char c) {
+        return c < CHARACTERS.length ? CHARACTERS[c] : String.valueOf(c);
+    }
+
+    // Numbers
+
+    static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double || value instanceof BigInteger;
+    }
+
+    static boolean isInteger(Object value) {
+        return value instanceof Long || value instanceof BigInteger;
+    }
+
+    static double toDouble(Object number) {
+        return ((Number) number).doubleValue();
+    }
+
+    static BigInteger toBig(Object integer) {
+        return integer instanceof Long value ? BigInteger.valueOf(value) : (BigInteger) integer;
+    }
+
+    static Object normalize(BigInteger value) {
+        if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0) {
+            return value.longValue();
+        }
+        return value;
+    }
+
+    // Python's modulo takes the sign of the divisor.
+    static double floorMod(double left, double right) {
+        double result = left % right;
+        if (result != 0 && (result < 0) != (right < 0)) result += right;
+        return result;
+    }
+
+    // Errors
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (isNumber(operand)) return;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (isNumber(left) && isNumber(right)) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    static Object unary(Token operator, Object right) {
+        switch (operator.type) {
+            case MINUS -> {
+                checkNumberOperand(operator, right);
+                if (right instanceof Long value) {
+                    return value == Long.MIN_VALUE ? BigInteger.valueOf(value).negate() : -value;
+                }
+                if (right instanceof BigInteger value) return normalize(value.negate());
+                return -(double) right;
+            }
+            case BANG -> {
+                return !isTruthy(right);
+            }
+        }
+        return null; // or throw an error if you prefer
+    }
+
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type){
+            case PLUS -> {
+                return add(operator, left, right);
+            }
+            case MINUS, STAR, SLASH, MOD, POW -> {
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long a && right instanceof Long b) {
+                    return arithmetic(operator, a, b);
+                }
+                if (isInteger(left) && isInteger(right)) {
+                    return arithmetic(operator, toBig(left), toBig(right));
+                }
+                return arithmetic(operator, toDouble(left), toDouble(right));
+            }
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                checkNumberOperands(operator, left, right);
+                int comparison;
+                if (left instanceof Long a && right instanceof Long b) {
+                    comparison = Long.compare(a, b);
+                } else if (isInteger(left) && isInteger(right)) {
+                    comparison = toBig(left).compareTo(toBig(right));
+                } else {
+                    return compare(operator, toDouble(left), toDouble(right));
+                }
+                return switch (operator.type) {
+                    case GREATER -> comparison > 0;
+                    case GREATER_EQUAL -> comparison >= 0;
+                    case LESS -> comparison < 0;
+                    default -> comparison <= 0;
+                };
+            }
+            case BANG_EQUAL -> {
+                return !isEqual(left, right);
+            }
+            case EQUAL_EQUAL -> {
+                return isEqual(left, right);
+            }
+            case IN -> {
+                return contains(operator, left, right);
+            }
+        }
+        return null; // or throw an error if you prefer
+    }
+
+    // `element in container`: a substring test for strings, arithmetic for ranges.
+    static boolean contains(Token operator, Object element, Object container) {
+        if (container instanceof Range range) return range.contains(element);
+        if (container instanceof List<?> list) {
+            for (int i = 0; i < list.size(); i++) {
+                if (isEqual(element, list.get(i))) return true;
+            }
+            return false;
+        }
+        if (isString(container)) {
+            if (!isString(element)) throw new RuntimeError(operator, "Left operand of 'in' must be a string.");
+            return container.toString().contains((CharSequence) element);
+        }
+        throw new RuntimeError(operator, "Right operand of 'in' must be a list, string or range.");
+    }
+
+    // Builtins
+
+    static Range range(Token name, Object start, Object end, Object step) {
+        if (!(start instanceof Long first && end instanceof Long last && step instanceof Long by)) {
+            throw new RuntimeError(name, "Range arguments must be integers.");
+        }
+        return Range.of(name, first, last, by);
+    }
+
+    static long length(Token name, Object value) {
+        if (value instanceof List<?> list) return list.size();
+        if (isString(value)) return ((CharSequence) value).length();
+        if (value instanceof Range range) return range.length;
+        throw new RuntimeError(name, "Only lists, strings and ranges have a length.");
+    }
+
+    static Object add(Token operator, Object left, Object right) {
+        if (isNumber(left) && isNumber(right)) {
+            if (left instanceof Long a && right instanceof Long b) {
+                return arithmetic(operator, a, b);
+            }
+            if (isInteger(left) && isInteger(right)) {
+                return normalize(toBig(left).add(toBig(right)));
+            }
+            return toDouble(left) + toDouble(right);
+        }
+        if (isString(left) && isString(right)) {
+            String result = left.toString() + right.toString();
+            Events.allocated("string", result.length());
+            return result;
+        }
+        if (isString(left) && isNumber(right)) {
+            return left.toString() + stringify(right);
+        }
+        if (isNumber(left) && isString(right)) {
+            return stringify(left) + right.toString();
+        }
+        throw new RuntimeError(operator,"Operands must be two numbers or two strings.");
+    }
+
+    // The new value of `s = s + right` when s holds `current`. A string buffer that
+    // no one else holds is appended to in place; otherwise this is add(), and a
+    // string built that way becomes a buffer so that the next append is cheap.
+    static Object append(Token operator, Object current, Object right) {
+        if (current instanceof MutableString buffer && !buffer.shared) {
+            if (isString(right)) {
+                buffer.append((CharSequence) right);
+                return buffer;
+            }
+            if (isNumber(right)) {
+                buffer.append(stringify(right));
+                return buffer;
+            }
+        }
+        Object result = add(operator, current, right);
+        if (isString(current) && result instanceof String text) return new MutableString(text, text.length());
+        return result;
+    }
+
+    // 64-bit int arithmetic, promoting to BigInteger when the result overflows.
+    static Object arithmetic(Token operator, long left, long right) {
+        switch (operator.type) {
+            case PLUS -> {
+                long result = left + right;
+                if (((left ^ result) & (right ^ result)) < 0) {
+                    return BigInteger.valueOf(left).add(BigInteger.valueOf(right));
+                }
+                return result;
+            }
+            case MINUS -> {
+                long result = left - right;
+                if (((left ^ right) & (left ^ result)) < 0) {
+                    return BigInteger.valueOf(left).subtract(BigInteger.valueOf(right));
+                }
+                return result;
+            }
+            case STAR -> {
+                long high = Math.multiplyHigh(left, right);
+                long result = left * right;
+                if ((high == 0 && result >= 0) || (high == -1 && result < 0)) return result;
+                return BigInteger.valueOf(left).multiply(BigInteger.valueOf(right));
+            }
+            case SLASH -> {
+                if (right == 0) throw new RuntimeError(operator, "Division by zero.");
+                return (double) left / (double) right;
+            }
+            case MOD -> {
+                if (right == 0) throw new RuntimeError(operator, "Division by zero.");
+                return Math.floorMod(left, right);
+            }
+            case POW -> {
+                if (right < 0) return Math.pow(left, right);
+                return arithmetic(operator, BigInteger.valueOf(left), BigInteger.valueOf(right));
+            }
+        }
+        return null;
+    }
+
+    static Object arithmetic(Token operator, BigInteger left, BigInteger right) {
+        switch (operator.type) {
+            case PLUS -> {
+                return normalize(left.add(right));
+            }
+            case MINUS -> {
+                return normalize(left.subtract(right));
+            }
+            case STAR -> {
+                return normalize(left.multiply(right));
+            }
+            case SLASH -> {
+                if (right.signum() == 0) throw new RuntimeError(operator, "Division by zero.");
+                return left.doubleValue() / right.doubleValue();
+            }
+            case MOD -> {
+                if (right.signum() == 0) throw new RuntimeError(operator, "Division by zero.");
+                BigInteger result = left.remainder(right);
+                if (result.signum() != 0 && result.signum() != right.signum()) result = result.add(right);
+                return normalize(result);
+            }
+            case POW -> {
+                if (right.signum() < 0) return Math.pow(left.doubleValue(), right.doubleValue());
+                if (right.bitLength() > 31) throw new RuntimeError(operator, "Exponent too large.");
+                return normalize(left.pow(right.intValue()));
+            }
+        }
+        return null;
+    }
+
+    static Object arithmetic(Token operator, double left, double right) {
+        switch (operator.type) {
+            case PLUS -> {
+                return left + right;
+            }
+            case MINUS -> {
+                return left - right;
+            }
+            case STAR -> {
+                return left * right;
+            }
+            case SLASH -> {
+                if (right == 0) throw new RuntimeError(operator, "Division by zero.");
+                return left / right;
+            }
+            case MOD -> {
+                if (right == 0) throw new RuntimeError(operator, "Division by zero.");
+                return floorMod(left, right);
+            }
+            case POW -> {
+                return Math.pow(left, right);
+            }
+        }
+        return null;
+    }
+
+    static boolean compare(Token operator, double left, double right) {
+        return switch (operator.type) {
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            default -> left <= right;
+        };
+    }
+
+    // Indexing and slicing: `end` is null for a plain index, `step` is null when omitted.
+    static Object index(Token identifier, Object value, Object start, Object end, Object step) {
+        if (value instanceof Range range) return rangeIndex(identifier, range, start, end, step);
+        if(!(value instanceof List<?> || isString(value))){
+            throw new RuntimeError(identifier, "Only lists and strings can be indexed.");
+        }
+        if (end == null) return element(identifier, value, start);
+        if (step == null) step = 1L;
+
+        // Ensure that start, end, and step are ints
+        if (!isInteger(start) || (end != null && !isInteger(end)) || !isInteger(step)) {
+            throw new RuntimeError(identifier, "Start, end, and step values must be integers.");
+        }
+
+        int startIndex = toIndex(start);
+        int endIndex = toIndex(end);
+        int stepValue = toIndex(step);
+        if (stepValue <= 0) {
+            throw new RuntimeError(identifier, "Slice step must be positive.");
+        }
+
+        int size = value instanceof List<?> list ? list.size() : ((CharSequence) value).length();
+        if(startIndex < 0 || startIndex >= size || endIndex > size){
+            throw new RuntimeError(identifier, "Index out of bounds.");
+        }
+        // Slices share the elements of what they slice; one element comes back as itself.
+        int count = endIndex > startIndex ? (endIndex - startIndex - 1) / stepValue + 1 : 0;
+        if (count == 1) return element(identifier, value, start);
+        if (value instanceof Tuple tuple) {
+            Object[] elements = new Object[count];
+            for (int i = 0; i < count; i++) elements[i] = tuple.get(startIndex + i * stepValue);
+            return Tuple.of(elements);
+        }
+        if (value instanceof List<?> list) return ListValue.slice(list, startIndex, stepValue, count);
+        return StringView.slice((CharSequence) value, startIndex, stepValue, count);
+    }
+
+    // The same rules for a range, whose length need not fit in an int: an element is
+    // computed, and a slice is a range of its own.
+    private static Object rangeIndex(Token identifier, Range range, Object start, Object end, Object step) {
+        if (step == null) step = 1L;
+        if (!isInteger(start) || (end != null && !isInteger(end)) || !isInteger(step)) {
+            throw new RuntimeError(identifier, "Start, end, and step values must be integers.");
+        }
+        long startIndex = toLongIndex(start);
+        if (end == null) {
+            if (startIndex < 0 || startIndex >= range.length) throw new RuntimeError(identifier, "Index out of bounds.");
+            return range.get(startIndex);
+        }
+        long endIndex = toLongIndex(end);
+        long stepValue = toLongIndex(step);
+        if (stepValue <= 0) {
+            throw new RuntimeError(identifier, "Slice step must be positive.");
+        }
+        if (startIndex < 0 || startIndex >= range.length || endIndex > range.length) {
+            throw new RuntimeError(identifier, "Index out of bounds.");
+        }
+        long count = endIndex > startIndex ? (endIndex - startIndex - 1) / stepValue + 1 : 0;
+        if (count == 1) return range.get(startIndex);
+        return range.slice(startIndex, stepValue, count);
+    }
+
+    // value[index], without allocating for lists or for Latin-1 strings.
+    private static Object element(Token identifier, Object value, Object index) {
+        if (!isInteger(index)) {
+            throw new RuntimeError(identifier, "Start, end, and step values must be integers.");
+        }
+        int i = toIndex(index);
+        if (value instanceof List<?> list) {
+            if (i < 0 || i >= list.size()) throw new RuntimeError(identifier, "Index out of bounds.");
+            return list.get(i);
+        }
+        CharSequence string = (CharSequence) value;
+        if (i < 0 || i >= string.length()) throw new RuntimeError(identifier, "Index out of bounds.");
+        return character(string.charAt(i));
+    }
+
+    // Clamps an int to the int range; anything that large is out of bounds anyway.
+    private static int toIndex(Object integer) {
+        if (integer instanceof Long value) {
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+        }
+        return ((BigInteger) integer).signum() < 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+    }
+
+    private static long toLongIndex(Object integer) {
+        if (integer instanceof Long value) return value;
+        return ((BigInteger) integer).signum() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    // Stores `value` at `index` and returns the container the variable should now hold:
+    // lists and unshared string buffers are updated in place, other strings are
+    // copied into a new buffer first.
+    static Object setIndex(Token name, Object variable, Object index, Object value) {
+        if (variable instanceof Tuple) {
+            throw new RuntimeError(name, "Tuples can't be changed.");
+        }
+        if (variable instanceof List<?> list) {
+            if (!isInteger(index)) {
+                throw new RuntimeError(name, "Index must be an integer.");
+            }
+            int i = toIndex(index);
+            if (i < 0 || i >= list.size()) {
+                throw new RuntimeError(name, "Index out of bounds.");
+            }
+
+            // Update the list without casting
+            @SuppressWarnings("unchecked")
+            List<Object> typedList = (List<Object>) list;
+            typedList.set(i, value);
+            return list;
+        } else if (isString(variable)) {
+            if(!isString(value) || ((CharSequence) value).length() != 1){
+                throw new RuntimeError(name, "Assignment to string index must be a single character.");
+            }
+            if (!isInteger(index)) {
+                throw new RuntimeError(name, "Index must be an integer.");
+            }
+            CharSequence string = (CharSequence) variable;
+            int i = toIndex(index);
+            if (i < 0 || i >= string.length()) {
+                throw new RuntimeError(name, "Index out of bounds.");
+            }
+            MutableString buffer = variable instanceof MutableString mutable && !mutable.shared
+                    ? mutable : new MutableString(string, 0);
+            buffer.setCharAt(i, ((CharSequence) value).charAt(0));
+            return buffer;
+        }
+        throw new RuntimeError(name, "Only lists and strings support index assignment.");
+    }
+}
@@ -0,0 +1,409 @@
+package interpreter.subpython;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites resolved statements before they run: folds operators on literals,
+// drops branches and loops whose conditions are constant, drops code after
+// return, break and continue, and removes arithmetic identities.
+//
+// It runs after the Resolver, so which names are locals never depends on code
+// it removes, and every node it rebuilds keeps its slot annotations. Nothing
+// is folded that would fail at run time: an operation that raises (1 / 0,
+// "a" - 1) is left in place so it still raises on the line it was written.
+class Optimizer {
+    // Folded values are kept small enough to be ordinary constants in every
+    // engine; the native backend only has 63-bit ints.
+    private static final long MAX_INT = Long.MAX_VALUE >> 1;
+    private static final long MIN_INT = Long.MIN_VALUE >> 1;
+    private static final int MAX_STRING = 4096;
+    private static final int MAX_EXPONENT = 64;
+
+    // What is known about an expression's value without running it.
+    private enum Kind { INT, NUMBER, UNKNOWN }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if (optimized != null) result.add(optimized);
+            changed |= optimized != statement;
+            // Nothing after these runs.
+            if (optimized instanceof Stmt.Return || optimized instanceof Stmt.Break
+                    || optimized instanceof Stmt.Continue) {
+                changed |= result.size() < statements.size();
+                break;
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    // Statements. null means the statement can be dropped.
+
+    private Stmt optimize(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression expression -> {
+                Expr value = optimize(expression.expression);
+                return value == expression.expression ? stmt : new Stmt.Expression(value);
+            }
+            case Stmt.Print print -> {
+                List<Expr> values = optimizeAll(print.expressions);
+                return values == print.expressions ? stmt : new Stmt.Print(values);
+            }
+            case Stmt.Assignment assignment -> {
+                Expr value = optimize(assignment.initializer);
+                if (value == assignment.initializer) return stmt;
+                Stmt.Assignment copy = new Stmt.Assignment(assignment.name, value);
+                copy.depth = assignment.depth;
+                copy.slot = assignment.slot;
+                return copy;
+            }
+            case Stmt.Block block -> {
+                List<Stmt> statements = optimize(block.statements);
+                return statements == block.statements ? stmt : new Stmt.Block(statements);
+            }
+            case Stmt.If ifStmt -> {
+                return optimizeIf(ifStmt);
+            }
+            case Stmt.While whileStmt -> {
+                Expr condition = optimize(whileStmt.condition);
+                if (condition instanceof Expr.Literal literal && !Operators.isTruthy(literal.value)) return null;
+                Stmt body = optimizeBody(whileStmt.body);
+                if (condition == whileStmt.condition && body == whileStmt.body) return stmt;
+                return new Stmt.While(condition, body);
+            }
+            case Stmt.For forStmt -> {
+                Expr start = optimize(forStmt.start);
+                Expr end = optimize(forStmt.end);
+                Expr step = optimize(forStmt.step);
+                Stmt body = optimizeBody(forStmt.body);
+                if (start == forStmt.start && end == forStmt.end && step == forStmt.step
+                        && body == forStmt.body) {
+                    return stmt;
+                }
+                Stmt.For copy = new Stmt.For(forStmt.name, start, end, step, body);
+                copy.depth = forStmt.depth;
+                copy.slot = forStmt.slot;
+                return copy;
+            }
+            case Stmt.ForIterable forIterable -> {
+                Expr iterable = optimize(forIterable.iterable);
+                Stmt body = optimizeBody(forIterable.body);
+                if (iterable == forIterable.iterable && body == forIterable.body) return stmt;
+                Stmt.ForIterable copy = new Stmt.ForIterable(forIterable.name, iterable, body);
+                copy.depth = forIterable.depth;
+                copy.slot = forIterable.slot;
+                return copy;
+            }
+            case Stmt.Function function -> {
+                List<Stmt> body = optimize(function.body);
+                if (body == function.body) return stmt;
+                Stmt.Function copy = new Stmt.Function(function.name, function.params, body, function.memo);
+                copy.depth = function.depth;
+                copy.slot = function.slot;
+                copy.localCount = function.localCount;
+                return copy;
+            }
+            case Stmt.Return returnStmt -> {
+                Expr value = optimize(returnStmt.value);
+                return value == returnStmt.value ? stmt : new Stmt.Return(returnStmt.keyword, value);
+            }
+            default -> {
+                return stmt;
+            }
+        }
+    }
+
+    // Loop bodies always need a statement, even when everything in them was dropped.
+    private Stmt optimizeBody(Stmt body) {
+        Stmt optimized = optimize(body);
+        return optimized != null ? optimized : new Stmt.Block(List.of());
+    }
+
+    // Branches with a constant false condition go; the first constant true one
+    // becomes the else branch, or the whole statement if nothing comes before it.
+    private Stmt optimizeIf(Stmt.If ifStmt) {
+        List<Expr> conditions = new ArrayList<>();
+        List<Stmt> branches = new ArrayList<>();
+        Stmt elseBranch = ifStmt.elseBranch;
+        boolean changed = false;
+        for (int i = 0; i < ifStmt.condition.size(); i++) {
+            Expr condition = optimize(ifStmt.condition.get(i));
+            Stmt branch = optimizeBody(ifStmt.thenBranch.get(i));
+            changed |= condition != ifStmt.condition.get(i) || branch != ifStmt.thenBranch.get(i);
+            if (condition instanceof Expr.Literal literal) {
+                changed = true;
+                if (Operators.isTruthy(literal.value)) {
+                    elseBranch = branch;
+                    break;
+                }
+                continue;
+            }
+            conditions.add(condition);
+            branches.add(branch);
+        }
+        if (elseBranch != null && elseBranch == ifStmt.elseBranch) {
+            elseBranch = optimize(elseBranch);
+            changed |= elseBranch != ifStmt.elseBranch;
+        }
+        if (!changed) return ifStmt;
+        if (conditions.isEmpty()) return elseBranch;
+        return new Stmt.If(conditions, branches, elseBranch);
+    }
+
+    // Expressions
+
+    private Expr optimize(Expr expr) {
+        switch (expr) {
+            case null -> {
+                return null;
+            }
+            case Expr.Grouping grouping -> {
+                return optimize(grouping.expression);
+            }
+            case Expr.Unary unary -> {
+                Expr right = optimize(unary.right);
+                if (right instanceof Expr.Literal literal) {
+                    Expr folded = fold(unary.operator, () -> Operators.unary(unary.operator, literal.value));
+                    if (folded != null) return folded;
+                }
+                return right == unary.right ? expr : new Expr.Unary(unary.operator, right);
+            }
+            case Expr.Binary binary -> {
+                return optimizeBinary(binary);
+            }
+            case Expr.Logical logical -> {
+                Expr left = optimize(logical.left);
+                Expr right = optimize(logical.right);
+                // Both engines give back the operand itself, not a bool.
+                if (left instanceof Expr.Literal literal) {
+                    boolean truthy = Operators.isTruthy(literal.value);
+                    boolean shortCircuits = logical.operator.type == TokenType.OR ? truthy : !truthy;
+                    return shortCircuits ? left : right;
+                }
+                if (left == logical.left && right == logical.right) return expr;
+                return new Expr.Logical(left, logical.operator, right);
+            }
+            case Expr.Assignment assignment -> {
+                Expr value = optimize(assignment.value);
+                Expr index = optimize(assignment.index);
+                if (value == assignment.value && index == assignment.index) return expr;
+                Expr.Assignment copy = new Expr.Assignment(assignment.name, value, index);
+                copy.depth = assignment.depth;
+                copy.slot = assignment.slot;
+                return copy;
+            }
+            case Expr.List_ list -> {
+                List<Expr> elements = optimizeAll(list.elements);
+                return elements == list.elements ? expr : new Expr.List_(elements);
+            }
+            case Expr.Tuple_ tuple -> {
+                List<Expr> elements = optimizeAll(tuple.elements);
+                return elements == tuple.elements ? expr : new Expr.Tuple_(elements);
+            }
+            case Expr.Index index -> {
+                Expr start = optimize(index.start);
+                Expr end = optimize(index.end);
+                Expr step = optimize(index.step);
+                if (start == index.start && end == index.end && step == index.step) return expr;
+                Expr.Index copy = new Expr.Index(index.identifier, start, end, step);
+                copy.depth = index.depth;
+                copy.slot = index.slot;
+                return copy;
+            }
+            case Expr.Call call -> {
+                List<Expr> arguments = optimizeAll(call.arguments);
+                if (arguments == call.arguments) return expr;
+                Expr.Call copy = new Expr.Call(call.identifier, arguments);
+                copy.depth = call.depth;
+                copy.slot = call.slot;
+                copy.target = call.target;
+                return copy;
+            }
+            case Expr.Builtin builtin -> {
+                List<Expr> arguments = optimizeAll(builtin.arguments);
+                return arguments == builtin.arguments ? expr : new Expr.Builtin(builtin.name, arguments);
+            }
+            default -> {
+                return expr;
+            }
+        }
+    }
+
+    private List<Expr> optimizeAll(List<Expr> expressions) {
+        List<Expr> result = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expression : expressions) {
+            Expr optimized = optimize(expression);
+            result.add(optimized);
+            changed |= optimized != expression;
+        }
+        return changed ? result : expressions;
+    }
+
+    private Expr optimizeBinary(Expr.Binary binary) {
+        Expr left = optimize(binary.left);
+        Expr right = optimize(binary.right);
+        Token operator = binary.operator;
+
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b && foldable(operator, a.value, b.value)) {
+            Expr folded = fold(operator, () -> Operators.binary(operator, a.value, b.value));
+            if (folded != null) return folded;
+        }
+
+        // Identities, only where the other operand is known to be a number, so
+        // that strings and type errors behave exactly as before. x + 0 also needs
+        // an int: -0.0 + 0 is 0.0.
+        switch (operator.type) {
+            case PLUS -> {
+                if (isInt(right, 0) && kind(left) == Kind.INT) return left;
+                if (isInt(left, 0) && kind(right) == Kind.INT) return right;
+            }
+            case MINUS -> {
+                if (isInt(right, 0) && kind(left) != Kind.UNKNOWN) return left;
+            }
+            case STAR -> {
+                if (isInt(right, 1) && kind(left) != Kind.UNKNOWN) return left;
+                if (isInt(left, 1) && kind(right) != Kind.UNKNOWN) return right;
+            }
+            case POW -> {
+                if (isInt(right, 1) && kind(left) != Kind.UNKNOWN) return left;
+            }
+            default -> {
+            }
+        }
+
+        if (left == binary.left && right == binary.right) return binary;
+        return new Expr.Binary(left, operator, right);
+    }
+
+    // Only the operators every engine implements the same way, and no powers
+    // that would take long to work out.
+    private boolean foldable(Token operator, Object left, Object right) {
+        return switch (operator.type) {
+            case PLUS, MINUS, STAR, SLASH, MOD, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL,
+                 EQUAL_EQUAL, BANG_EQUAL -> true;
+            case POW -> !(Operators.isInteger(left) && right instanceof Long exponent && exponent > MAX_EXPONENT)
+                    && !(right instanceof BigInteger);
+            default -> false;
+        };
+    }
+
+    private interface Operation {
+        Object apply();
+    }
+
+    // The literal for the operation's result, standing at its operator, or null if
+    // it raises or the result is too big to keep.
+    private Expr fold(Token operator, Operation operation) {
+        Object value;
+        try {
+            value = operation.apply();
+        } catch (RuntimeError error) {
+            return null;
+        }
+        switch (value) {
+            case null -> {
+                return null;
+            }
+            case Long number when number < MIN_INT || number > MAX_INT -> {
+                return null;
+            }
+            case BigInteger number -> {
+                return null;
+            }
+            case String text when text.length() > MAX_STRING -> {
+                return null;
+            }
+            default -> {
+                return new Expr.Literal(value, operator);
+            }
+        }
+    }
+
+    // The right operand of `name = name + right`, if right is pure; null otherwise.
+    // Both engines append such assignments to a string in place.
+    static Expr appended(Stmt.Assignment assignment) {
+        if (assignment.initializer instanceof Expr.Binary binary && binary.operator.type == TokenType.PLUS
+                && binary.left instanceof Expr.Variable variable
+                && variable.depth == assignment.depth && variable.slot == assignment.slot
+                && isPure(binary.right)) {
+            return binary.right;
+        }
+        return null;
+    }
+
+    // Whether the operator only looks at its operands, so that neither engine has
+    // to mark a string operand shared: the result never holds on to it.
+    static boolean inspects(Token operator) {
+        return switch (operator.type) {
+            case EQUAL_EQUAL, BANG_EQUAL, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, IN -> true;
+            default -> false;
+        };
+    }
+
+    // For values evaluated in order and used only once all are, the index from
+    // which on they can be borrowed: nothing evaluated after them can write.
+    static int firstBorrowed(List<Expr> values) {
+        int first = values.size() - 1;
+        while (first > 0 && isPure(values.get(first))) first--;
+        return first;
+    }
+
+    // Whether evaluating the expression can't change any variable.
+    static boolean isPure(Expr expr) {
+        return switch (expr) {
+            case null -> true;
+            case Expr.Literal literal -> true;
+            case Expr.Variable variable -> true;
+            case Expr.Grouping grouping -> isPure(grouping.expression);
+            case Expr.Unary unary -> isPure(unary.right);
+            case Expr.Binary binary -> isPure(binary.left) && isPure(binary.right);
+            case Expr.Logical logical -> isPure(logical.left) && isPure(logical.right);
+            case Expr.Index index -> isPure(index.start) && isPure(index.end) && isPure(index.step);
+            case Expr.List_ list -> list.elements.stream().allMatch(Optimizer::isPure);
+            case Expr.Tuple_ tuple -> tuple.elements.stream().allMatch(Optimizer::isPure);
+            case Expr.Builtin builtin -> builtin.arguments.stream().allMatch(Optimizer::isPure);
+            default -> false;
+        };
+    }
+
+    private static boolean isInt(Expr expr, long value) {
+        return expr instanceof Expr.Literal literal && literal.value instanceof Long number && number == value;
+    }
+
+    private static Kind kind(Expr expr) {
+        switch (expr) {
+            case Expr.Literal literal -> {
+                if (Operators.isInteger(literal.value)) return Kind.INT;
+                return literal.value instanceof Double ? Kind.NUMBER : Kind.UNKNOWN;
+            }
+            case Expr.Unary unary when unary.operator.type == TokenType.MINUS -> {
+                return kind(unary.right) == Kind.INT ? Kind.INT : Kind.NUMBER;
+            }
+            case Expr.Binary binary -> {
+                Kind left = kind(binary.left), right = kind(binary.right);
+                switch (binary.operator.type) {
+                    case PLUS -> {
+                        if (left == Kind.UNKNOWN || right == Kind.UNKNOWN) return Kind.UNKNOWN;
+                        return left == Kind.INT && right == Kind.INT ? Kind.INT : Kind.NUMBER;
+                    }
+                    case MINUS, STAR, MOD -> {
+                        return left == Kind.INT && right == Kind.INT ? Kind.INT : Kind.NUMBER;
+                    }
+                    case SLASH, POW -> {
+                        return Kind.NUMBER;
+                    }
+                    default -> {
+                        return Kind.UNKNOWN;
+                    }
+                }
+            }
+            default -> {
+                return Kind.UNKNOWN;
+            }
+        }
+    }
+}
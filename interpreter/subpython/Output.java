@@ -0,0 +1,115 @@
+package interpreter.subpython;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+// Buffered output for print. Values are formatted straight into a char buffer,
+// and the buffer is written to System.out, or an embedded script's own sink, in
+// one piece when the flush policy says so. Every run ends with a flush, and so
+// does reporting an error, so output never shows up after the error that
+// followed it.
+final class Output {
+    static final int EXIT = 0; // only when a run ends; the buffer grows as needed
+    static final int FULL = 1; // also whenever the buffer is full
+    static final int LINE = 2; // also after every line, for interactive use
+
+    // What print writes to; terminals see each line as it is printed.
+    static final Output STDOUT = new Output(System.console() != null ? LINE : FULL);
+
+    int policy;
+    private final Appendable sink; // null for System.out, as it is at each flush
+    private char[] buffer = new char[8192];
+    private int count;
+
+    Output(int policy) {
+        this(policy, null);
+    }
+
+    Output(int policy, Appendable sink) {
+        this.policy = policy;
+        this.sink = sink;
+    }
+
+    void write(char c) {
+        if (count == buffer.length) makeRoom(1);
+        buffer[count++] = c;
+    }
+
+    void write(CharSequence text) {
+        int length = text.length();
+        if (length > buffer.length - count) makeRoom(length);
+        if (text instanceof String string) {
+            string.getChars(0, length, buffer, count);
+        } else {
+            for (int i = 0; i < length; i++) buffer[count + i] = text.charAt(i);
+        }
+        count += length;
+    }
+
+    // Digits written backwards into place, without a String in between.
+    void write(long value) {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value));
+            return;
+        }
+        if (buffer.length - count < 20) makeRoom(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int end = count + digits(value);
+        for (int at = end - 1; at >= count; at--, value /= 10) {
+            buffer[at] = (char) ('0' + value % 10);
+        }
+        count = end;
+    }
+
+    void newline() {
+        write('\n');
+        if (policy == LINE) flush();
+    }
+
+    void flush() {
+        if (count == 0) return;
+        if (sink != null) {
+            try {
+                sink.append(CharBuffer.wrap(buffer, 0, count));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                count = 0;
+            }
+            return;
+        }
+        PrintStream out = System.out;
+        byte[] bytes = new String(buffer, 0, count).getBytes(out.charset());
+        count = 0;
+        out.write(bytes, 0, bytes.length);
+        out.flush();
+    }
+
+    // What has been written and not flushed yet.
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count);
+    }
+
+    private void makeRoom(int needed) {
+        if (policy != EXIT) flush();
+        if (needed > buffer.length - count) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + needed));
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
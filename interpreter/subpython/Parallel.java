@@ -0,0 +1,130 @@
+package interpreter.subpython;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// pmap(f, iterable): f called on every element of a list, string or range on the
+// common ForkJoin pool, with the results in a new list in element order.
+//
+// The elements are split into slices that the pool's threads take and split
+// further while there are idle threads. Each slice runs its calls on a worker of
+// its own: an Interpreter or VM with its own frames that shares the globals. The
+// Resolver has made sure f neither assigns globals nor prints, so the workers
+// only read what they share.
+final class Parallel {
+    private Parallel() {}
+
+    // Runs calls on one thread.
+    interface Worker {
+        Object call(Function function, Object argument);
+    }
+
+    static ListValue map(Token name, Object callee, Object iterable, Supplier<Worker> workers) {
+        if (!(callee instanceof Function function)) {
+            throw new RuntimeError(name, "Can only map functions.");
+        }
+        if (function.arity() != 1) {
+            throw new RuntimeError(name, "Expected a function of 1 argument but got " + function.arity() + ".");
+        }
+        Object[] elements = elements(name, iterable);
+        Object[] results = new Object[elements.length];
+        // Slices per thread, so that threads finishing early can take over some.
+        int leaf = Math.max(1, elements.length / (4 * ForkJoinPool.getCommonPoolParallelism()));
+        Slice all = new Slice(function, elements, results, workers, leaf, 0, elements.length);
+        all.invoke();
+
+        // The error of the first element that failed, as if the calls ran in order.
+        if (all.failed.get() < elements.length) throw (RuntimeError) results[all.failed.get()];
+        ListValue list = new ListValue(results.length);
+        for (Object result : results) list.add(result);
+        return list;
+    }
+
+    private static Object[] elements(Token name, Object iterable) {
+        return switch (iterable) {
+            case Range range -> {
+                if (range.length > Integer.MAX_VALUE - 8) throw new RuntimeError(name, "Range is too long.");
+                Object[] elements = new Object[(int) range.length];
+                for (int i = 0; i < elements.length; i++) elements[i] = range.get(i);
+                yield elements;
+            }
+            case List<?> list -> list.toArray();
+            case CharSequence string -> {
+                Object[] elements = new Object[string.length()];
+                for (int i = 0; i < elements.length; i++) elements[i] = Operators.character(string.charAt(i));
+                yield elements;
+            }
+            case null, default -> throw new RuntimeError(name, "Can only map over lists, strings and ranges.");
+        };
+    }
+
+    // ForkJoin tasks are Serializable, but slices never leave the pool.
+    @SuppressWarnings("serial")
+    private static final class Slice extends RecursiveAction {
+        private final Function function;
+        private final Object[] elements;
+        private final Object[] results;
+        private final Supplier<Worker> workers;
+        private final int leaf;
+        private final int from;
+        private final int to;
+        // The lowest index whose call failed, its error left in results. Elements
+        // after it are skipped; those before still run, in case one fails too.
+        final AtomicInteger failed;
+
+        Slice(Function function, Object[] elements, Object[] results, Supplier<Worker> workers,
+                int leaf, int from, int to) {
+            this(function, elements, results, workers, leaf, from, to, new AtomicInteger(elements.length));
+        }
+
+        private Slice(Function function, Object[] elements, Object[] results, Supplier<Worker> workers,
+                int leaf, int from, int to, AtomicInteger failed) {
+            this.function = function;
+            this.elements = elements;
+            this.results = results;
+            this.workers = workers;
+            this.leaf = leaf;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > leaf) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Slice(function, elements, results, workers, leaf, from, middle, failed),
+                        new Slice(function, elements, results, workers, leaf, middle, to, failed));
+                return;
+            }
+            Worker worker = workers.get();
+            Memo memo = function.memo;
+            for (int i = from; i < to && i < failed.get(); i++) {
+                try {
+                    results[i] = memo == null ? worker.call(function, elements[i]) : call(worker, memo, elements[i]);
+                } catch (RuntimeError error) {
+                    // The worker was left mid-call; the rest of the slice comes later anyway.
+                    results[i] = error;
+                    failed.accumulateAndGet(i, Math::min);
+                    return;
+                }
+            }
+        }
+
+        private Object call(Worker worker, Memo memo, Object element) {
+            Object key = Memo.key(new Object[] {element});
+            if (key == null) {
+                memo.bypassed();
+                return worker.call(function, element);
+            }
+            Object cached = memo.get(key);
+            if (cached != Memo.MISSING) return cached;
+            Object result = worker.call(function, element);
+            memo.put(key, result);
+            return result;
+        }
+    }
+}
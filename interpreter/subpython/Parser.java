@@ -6,11 +6,22 @@ import java.util.List;
 
 class Parser {
     private static class ParseError extends RuntimeException {}
-    private final List<Token> tokens;
-    private int current = 0;
-
-    Parser(List<Token> tokens) {
+    // Tokens are pulled from the source as the parse goes. Only the previous token,
+    // the current one and, for checkNext, the one after it are kept.
+    private final TokenSource tokens;
+    private Token previous;
+    private Token current;
+    private Token next;
+    private final Errors errors;
+
+    Parser(TokenSource tokens, Errors errors) {
         this.tokens = tokens;
+        this.errors = errors;
+        this.current = tokens.nextToken();
+    }
+
+    Parser(List<Token> tokens, Errors errors) {
+        this(TokenSource.of(tokens), errors);
     }
 
     private boolean match(TokenType... types) {
@@ -29,12 +40,17 @@ class Parser {
     }
 
     private boolean checkNext(TokenType type) {
-        if (current + 1 >= tokens.size()) return false;
-        return tokens.get(current + 1).type == type;
+        if (isAtEnd()) return false;
+        if (next == null) next = tokens.nextToken();
+        return next.type == type;
     }
 
     private Token advance() {
-        if (!isAtEnd()) current++;
+        if (!isAtEnd()) {
+            previous = current;
+            current = next != null ? next : tokens.nextToken();
+            next = null;
+        }
         return previous();
     }
 
@@ -43,15 +59,15 @@ class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return current;
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private ParseError error(Token token, String message) {
-        Subpython.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -72,10 +88,15 @@ class Parser {
     }
 
     // Program → stmt* EOF ;
+    // Stops at the first syntax error, which has been reported to errors by then.
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd()) {
-            statements.add(statement());
+        try {
+            while (!isAtEnd()) {
+                statements.add(statement());
+            }
+        } catch (ParseError error) {
+            // Nothing after it is parsed; errors.hadError tells the caller.
         }
         return statements;
     }
@@ -90,22 +111,56 @@ class Parser {
         if (checkNext(EQUAL) && match(IDENTIFIER)) return assignmentStatement();
         if (match(WHILE)) return whileStatement();
         if (match(FOR)) return forStatement();
-        if (match(DEF)) return functionStatement();
+        if (match(DEF)) return functionStatement(0);
+        if (match(AT)) return decoratedStatement();
         if (match(RETURN)) return returnStatement();
+        if (match(BREAK, CONTINUE)) return loopControlStatement();
         return expressionStatement();
     }
 
     // returnStmt → RETURN expression NEW_LINE* ;
     private Stmt returnStatement() {
+        Token keyword = previous();
         Expr value = expression();
         if (match(NEW_LINE)) {
             while (match(NEW_LINE)) {}
         }
-        return new Stmt.Return(value);
+        return new Stmt.Return(keyword, value);
+    }
+
+    // loopControlStmt → (BREAK | CONTINUE) NEW_LINE* ;
+    private Stmt loopControlStatement() {
+        Token keyword = previous();
+        if (match(NEW_LINE)) {
+            while (match(NEW_LINE)) {}
+        }
+        if (keyword.type == BREAK) return new Stmt.Break(keyword);
+        return new Stmt.Continue(keyword);
+    }
+
+    // decoratedStmt → AT "memo" ( LEFT_PAREN NUMBER RIGHT_PAREN )? NEW_LINE+ DEF functionStmt ;
+    // The only decorator is memo, whose argument is the size of the result cache.
+    private Stmt decoratedStatement() {
+        Token decorator = consume(IDENTIFIER, "Expect decorator name after '@'.");
+        if (!decorator.lexeme.equals("memo")) throw error(decorator, "Unknown decorator '" + decorator.lexeme + "'.");
+        int memo = Memo.DEFAULT_CAPACITY;
+        if (match(LEFT_PAREN)) {
+            Token size = consume(NUMBER, "Expect cache size.");
+            if (!(size.literal instanceof Long value) || value < 1 || value > Integer.MAX_VALUE) {
+                throw error(size, "Cache size must be a positive int.");
+            }
+            memo = (int) (long) value;
+            consume(RIGHT_PAREN, "Expect ')' after cache size.");
+        }
+        consume(NEW_LINE, "Expect newline after decorator.");
+        while (match(NEW_LINE)) {}
+        consume(DEF, "Expect function definition after decorator.");
+        return functionStatement(memo);
     }
 
     // functionStmt → DEF IDENTIFIER LEFT_PAREN parameters? RIGHT_PAREN COLON NEW_LINE blockStmt ;
-    private Stmt functionStatement() {
+    // memo is the size of the function's result cache, or 0 when it has none.
+    private Stmt functionStatement(int memo) {
         Token name = consume(IDENTIFIER, "Expect function name.");
         consume(LEFT_PAREN, "Expect '(' after function name.");
         List<Token> parameters = new ArrayList<>();
@@ -119,7 +174,7 @@ class Parser {
         consume(COLON, "Expect ':' after function declaration.");
         consume(NEW_LINE, "Expect newline after ':' in function declaration.");
         List<Stmt> body = blockStmt();
-        return new Stmt.Function(name, parameters, body);
+        return new Stmt.Function(name, parameters, body, memo);
     }
 
     // whileStmt → WHILE expression COLON NEW_LINE blockStmt ;
@@ -244,13 +299,18 @@ class Parser {
     // printStmt → PRINT LEFT_PAREN expression RIGHT_PAREN NEW_LINE* ;
     private Stmt printStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'print'.");
-        Expr value = expression();
+        List<Expr> values = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                values.add(expression());
+            } while (match(COMMA));
+        }
         consume(RIGHT_PAREN, "Expect ')' after value.");
         
         if (match(NEW_LINE)) {
             while (match(NEW_LINE)) {}
         }
-        return new Stmt.Print(value);
+        return new Stmt.Print(values);
     }
 
     // exprStmt → expression NEW_LINE* ;
@@ -345,10 +405,10 @@ class Parser {
         return expr;
     }
 
-    // comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+    // comparison → term ( ( ">" | ">=" | "<" | "<=" | "in" ) term )* ;
     private Expr comparison() {
         Expr expr = term();
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
+        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, IN)) {
             Token operator = previous();
             Expr right = term();
             expr = new Expr.Binary(expr, operator, right);
@@ -388,7 +448,7 @@ class Parser {
             if (operator.type == MINUS && right instanceof Expr.Literal) {
                 Object value = ((Expr.Literal) right).value;
                 if (value instanceof Double && (Double) value == 0.0) {
-                    return new Expr.Literal(0.0);
+                    return new Expr.Literal(0.0, operator);
                 }
             }
             return new Expr.Unary(operator, right);
@@ -409,12 +469,12 @@ class Parser {
 
     // primary -> NUMBER | STRING | "true" | "false" | "nil" | IDENTIFIER ( LEFT_BRACKET expression RIGHT_BRACKET | LEFT_PAREN arguments? RIGHT_PAREN)?; | LEFT_PAREN expression RIGHT_PAREN;
     private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NONE)) return new Expr.Literal(null);
+        if (match(FALSE)) return new Expr.Literal(false, previous());
+        if (match(TRUE)) return new Expr.Literal(true, previous());
+        if (match(NONE)) return new Expr.Literal(null, previous());
 
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(previous().literal, previous());
         }
 
         if (match(LEFT_PAREN)) {
@@ -423,6 +483,23 @@ class Parser {
             return new Expr.Grouping(expr);
         }
 
+        // builtin → "range" "(" expression ( "," expression ( "," expression )? )? ")" | "len" "(" expression ")"
+        //         | "pmap" "(" IDENTIFIER "," expression ")" ;
+        if (match(RANGE, LEN, PMAP)) {
+            Token name = previous();
+            consume(LEFT_PAREN, "Expect '(' after '" + name.lexeme + "'.");
+            List<Expr> arguments = new ArrayList<>();
+            if (name.type == PMAP) {
+                arguments.add(new Expr.Variable(consume(IDENTIFIER, "Expect function name.")));
+                consume(COMMA, "Expect ',' after function name.");
+            }
+            do {
+                arguments.add(expression());
+            } while (name.type == RANGE && arguments.size() < 3 && match(COMMA));
+            consume(RIGHT_PAREN, "Expect ')' after " + name.lexeme + " arguments.");
+            return new Expr.Builtin(name, arguments);
+        }
+
         if (match(IDENTIFIER)) {
             // store identifier name
             Token identifier = previous();
@@ -0,0 +1,289 @@
+package interpreter.subpython;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+// The --profile mode of the tree-walking Interpreter.
+//
+// Calls and statements are counted exactly. Time and allocation are sampled
+// instead, since reading the clock around every statement would cost more than
+// most statements do: a background thread wakes about once a millisecond, reads
+// the call stack the interpreter keeps here, and charges the time and the bytes
+// allocated since its last sample to the functions and lines on that stack.
+// Self (exclusive) figures go to the innermost frame only, total (inclusive)
+// figures to every distinct function or line on the stack.
+final class Profiler {
+    private static final long INTERVAL = 1_000_000; // nanoseconds between samples
+    private static final int TOP_LINES = 20;
+
+    // The interpreter's call stack. Frame 0 is the top-level code, whose name is
+    // null; lines[i] is the line running in frame i. The sampler reads these
+    // without locking and may see a stack that is a moment old.
+    private Token[] names = new Token[64];
+    private int[] lines = new int[64];
+    private volatile int depth;
+
+    // Exact counts, only touched by the interpreter thread.
+    private final Map<Token, long[]> calls = new IdentityHashMap<>();
+    private long[] executions = new long[256];
+    // The result caches of the @memo functions called, which count their own hits.
+    private final Map<Memo, Token> memos = new IdentityHashMap<>();
+
+    // Sampled figures, only touched by the sampler thread.
+    private final Map<Token, Totals> functions = new IdentityHashMap<>();
+    private final Map<Integer, Totals> lineTotals = new HashMap<>();
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final Totals module = new Totals();
+    private long samples;
+    private long sampledTime;
+
+    private final Thread sampler;
+    private volatile boolean running;
+
+    private static final class Totals {
+        long self, total, selfBytes, totalBytes;
+    }
+
+    Profiler() {
+        Thread interpreter = Thread.currentThread();
+        sampler = new Thread(() -> sample(interpreter), "subpython-profiler");
+        sampler.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // An interpreter that reports to this profiler.
+    Interpreter interpreter() {
+        return new Interpreter() {
+            @Override
+            void statement(Stmt stmt) {
+                Profiler.this.statement(stmt);
+            }
+
+            @Override
+            void entered(Function function) {
+                enter(function);
+            }
+
+            @Override
+            void exited() {
+                exit();
+            }
+
+            @Override
+            void unwound() {
+                unwind();
+            }
+        };
+    }
+
+    // Hooks
+
+    void statement(Stmt stmt) {
+        int line = line(stmt);
+        if (line <= 0) return;
+        if (line >= executions.length) executions = Arrays.copyOf(executions, Math.max(line + 1, executions.length * 2));
+        executions[line]++;
+        lines[depth] = line;
+    }
+
+    void enter(Function function) {
+        calls.computeIfAbsent(function.name, name -> new long[1])[0]++;
+        // A hit needs an earlier miss, which entered the function, so every cache
+        // that was used is seen here.
+        if (function.memo != null) memos.putIfAbsent(function.memo, function.name);
+        int next = depth + 1;
+        if (next == names.length) {
+            names = Arrays.copyOf(names, next * 2);
+            lines = Arrays.copyOf(lines, next * 2);
+        }
+        names[next] = function.name;
+        lines[next] = function.name.line;
+        depth = next;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    // A runtime error abandons the calls in progress.
+    void unwind() {
+        depth = 0;
+    }
+
+    // Sampling
+
+    private void sample(Thread interpreter) {
+        com.sun.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported() ? bean : null;
+        long last = System.nanoTime();
+        long allocated = allocated(threads, interpreter);
+        while (running) {
+            LockSupport.parkNanos(INTERVAL);
+            long now = System.nanoTime();
+            long bytes = allocated(threads, interpreter);
+            record(now - last, bytes - allocated);
+            last = now;
+            allocated = bytes;
+        }
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean threads, Thread thread) {
+        return threads == null ? 0 : Math.max(0, threads.getThreadAllocatedBytes(thread.threadId()));
+    }
+
+    private void record(long time, long bytes) {
+        Token[] names = this.names;
+        int[] lines = this.lines;
+        int top = Math.min(depth, Math.min(names.length, lines.length) - 1);
+        samples++;
+        sampledTime += time;
+
+        StringBuilder stack = new StringBuilder("<module>");
+        Set<Totals> seen = new HashSet<>();
+        for (int i = 0; i <= top; i++) {
+            Token name = i == 0 ? null : names[i];
+            if (i > 0) stack.append(';').append(name == null ? "?" : name.lexeme);
+            Totals function = name == null ? module : functions.computeIfAbsent(name, key -> new Totals());
+            Totals line = lines[i] > 0 ? lineTotals.computeIfAbsent(lines[i], key -> new Totals()) : null;
+            if (seen.add(function)) {
+                function.total += time;
+                function.totalBytes += bytes;
+            }
+            if (line != null && seen.add(line)) {
+                line.total += time;
+                line.totalBytes += bytes;
+            }
+            if (i == top) {
+                function.self += time;
+                function.selfBytes += bytes;
+                if (line != null) {
+                    line.self += time;
+                    line.selfBytes += bytes;
+                }
+            }
+        }
+        stacks.merge(stack.toString(), 1L, Long::sum);
+    }
+
+    // Report
+
+    // Prints the functions and the busiest lines, by self time, and writes the
+    // sampled stacks in the collapsed format that flame graph tools read.
+    void report(PrintStream out, Path collapsed) {
+        out.printf("Profile: %d samples over %.1f ms%n", samples, sampledTime / 1e6);
+
+        out.println();
+        out.printf("%12s %12s %12s %12s %12s  %s%n", "calls", "total ms", "self ms", "total KB", "self KB", "function");
+        List<Map.Entry<Token, Totals>> byFunction = new ArrayList<>(functions.entrySet());
+        byFunction.sort((a, b) -> Long.compare(b.getValue().self, a.getValue().self));
+        row(out, "", module, "<module>");
+        for (Map.Entry<Token, Totals> entry : byFunction) {
+            Token name = entry.getKey();
+            long[] count = calls.get(name);
+            row(out, String.valueOf(count == null ? 0 : count[0]), entry.getValue(),
+                    name.lexeme + " (line " + name.line + ")");
+        }
+        // Functions that ran between samples still have their calls counted.
+        for (Map.Entry<Token, long[]> entry : calls.entrySet()) {
+            if (functions.containsKey(entry.getKey())) continue;
+            Token name = entry.getKey();
+            row(out, String.valueOf(entry.getValue()[0]), new Totals(), name.lexeme + " (line " + name.line + ")");
+        }
+
+        if (!memos.isEmpty()) {
+            out.println();
+            out.println("Result caches (calls above count misses only):");
+            for (Map.Entry<Memo, Token> entry : memos.entrySet()) {
+                Token name = entry.getValue();
+                out.println("  " + name.lexeme + " (line " + name.line + "): " + entry.getKey());
+            }
+        }
+
+        out.println();
+        out.printf("%12s %12s %12s %12s %12s  %s%n", "executions", "total ms", "self ms", "total KB", "self KB", "line");
+        List<Map.Entry<Integer, Totals>> byLine = new ArrayList<>(lineTotals.entrySet());
+        byLine.sort((a, b) -> Long.compare(b.getValue().self, a.getValue().self));
+        for (Map.Entry<Integer, Totals> entry : byLine.subList(0, Math.min(TOP_LINES, byLine.size()))) {
+            int line = entry.getKey();
+            row(out, String.valueOf(line < executions.length ? executions[line] : 0), entry.getValue(), "line " + line);
+        }
+
+        try (Writer writer = Files.newBufferedWriter(collapsed)) {
+            for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            out.println();
+            out.println("Collapsed stacks written to " + collapsed + ".");
+        } catch (IOException e) {
+            out.println("Error writing collapsed stacks: " + e.getMessage());
+        }
+    }
+
+    private static void row(PrintStream out, String count, Totals totals, String label) {
+        out.printf("%12s %12.1f %12.1f %12d %12d  %s%n", count, totals.total / 1e6, totals.self / 1e6,
+                totals.totalBytes / 1024, totals.selfBytes / 1024, label);
+    }
+
+    // Source lines
+
+    // The line a statement starts on, or 0 when it holds no token to tell.
+    static int line(Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.Expression expression -> line(expression.expression);
+            case Stmt.Print print -> print.expressions.isEmpty() ? 0 : line(print.expressions.get(0));
+            case Stmt.Assignment assignment -> assignment.name.line;
+            case Stmt.If ifStmt -> line(ifStmt.condition.get(0));
+            case Stmt.While whileStmt -> line(whileStmt.condition);
+            case Stmt.For forStmt -> forStmt.name.line;
+            case Stmt.ForIterable forIterable -> forIterable.name.line;
+            case Stmt.Function function -> function.name.line;
+            case Stmt.Return returnStmt -> returnStmt.keyword.line;
+            case Stmt.Break breakStmt -> breakStmt.keyword.line;
+            case Stmt.Continue continueStmt -> continueStmt.keyword.line;
+            default -> 0;
+        };
+    }
+
+    static int line(Expr expr) {
+        return switch (expr) {
+            case Expr.Binary binary -> binary.operator.line;
+            case Expr.Grouping grouping -> line(grouping.expression);
+            case Expr.Unary unary -> unary.operator.line;
+            case Expr.Assignment assignment -> assignment.name.line;
+            case Expr.Variable variable -> variable.name.line;
+            case Expr.Logical logical -> logical.operator.line;
+            case Expr.List_ list -> list.elements.isEmpty() ? 0 : line(list.elements.get(0));
+            case Expr.Tuple_ tuple -> tuple.elements.isEmpty() ? 0 : line(tuple.elements.get(0));
+            case Expr.Index index -> index.identifier.line;
+            case Expr.Call call -> call.identifier.line;
+            case Expr.Builtin builtin -> builtin.name.line;
+            case null, default -> 0;
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package interpreter.subpython;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A script compiled for embedding: scanned, parsed, resolved, optimized and
+// compiled to bytecode once, so one can be shared by any number of threads.
+// Its code never changes after that; the only thing runs write into it is the
+// inline cache of each call site, which Chunk explains is safe to race on. Each
+// run gets a VM of its own, with its own globals, frames, output and errors; runs
+// only block on their output sink, so thousands can run at once on virtual threads.
+//
+//     Program rules = Program.compile(source);
+//     String output = rules.run(Map.of("amount", 120, "country", "NL"));
+public final class Program {
+    final Map<String, Integer> globalSlots;
+    final Function script;
+
+    private Program(Map<String, Integer> globalSlots, Function script) {
+        this.globalSlots = globalSlots;
+        this.script = script;
+    }
+
+    public static Program compile(String source) throws ScriptException {
+        Errors errors = new Errors();
+        List<Stmt> statements = new Parser(new Scanner(source, errors), errors).parse();
+        if (errors.hadError) throw new ScriptException(errors.messages());
+        Map<String, Integer> globalSlots = new HashMap<>();
+        new Resolver(globalSlots, errors).resolve(statements);
+        if (errors.hadError) throw new ScriptException(errors.messages());
+        statements = new Optimizer().optimize(statements);
+        return new Program(Map.copyOf(globalSlots), new Compiler().compile(statements));
+    }
+
+    // Runs the script and returns what it printed.
+    public String run() throws ScriptException {
+        return run(Map.of());
+    }
+
+    public String run(Map<String, ?> inputs) throws ScriptException {
+        StringBuilder out = new StringBuilder();
+        run(inputs, out);
+        return out.toString();
+    }
+
+    // Runs the script with the given globals set first, printing to out. Inputs
+    // the script never mentions are ignored.
+    public void run(Map<String, ?> inputs, Appendable out) throws ScriptException {
+        run(inputs, out, null);
+    }
+
+    // The same, but a run still going once timeout has passed stops and throws,
+    // with what it printed until then written to out.
+    public void run(Map<String, ?> inputs, Appendable out, Duration timeout) throws ScriptException {
+        Events.Execute event = Events.beginExecute();
+        VM vm = prepare(inputs, new Output(Output.FULL, out));
+        if (timeout != null) vm.deadline(timeout);
+        try {
+            vm.execute(script, globalSlots.size());
+        } catch (VM.Expired expired) {
+            throw new ScriptException(List.of("Stopped after running for " + timeout.toMillis() + " ms."));
+        }
+        if (event != null) Events.endExecute(event, "vm");
+        if (vm.errors.hadError) throw new ScriptException(vm.errors.messages());
+    }
+
+    private VM prepare(Map<String, ?> inputs, Output output) {
+        VM vm = new VM();
+        vm.errors = new Errors();
+        vm.output = output;
+        for (Map.Entry<String, ?> input : inputs.entrySet()) {
+            Integer slot = globalSlots.get(input.getKey());
+            if (slot != null) vm.define(slot, toScript(input.getValue()));
+        }
+        return vm;
+    }
+
+    // A Java value as the script value it stands for: ints of any width become
+    // ints, floats floats, and lists lists of converted elements.
+    static Object toScript(Object value) {
+        return switch (value) {
+            case null -> null;
+            case Long number -> number;
+            case Integer number -> (long) number;
+            case Short number -> (long) number;
+            case Byte number -> (long) number;
+            case Double number -> number;
+            case Float number -> (double) number;
+            case BigInteger number -> Operators.normalize(number);
+            case Boolean bool -> bool;
+            case CharSequence string -> string.toString();
+            case List<?> list -> {
+                ListValue converted = new ListValue(list.size());
+                for (Object element : list) converted.add(toScript(element));
+                yield converted;
+            }
+            default -> throw new IllegalArgumentException(
+                    "Can't pass a " + value.getClass().getName() + " to a script.");
+        };
+    }
+}
@@ -0,0 +1,118 @@
+package interpreter.subpython;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+// The value of range(start, end, step): the ints start, start + step, ... up to
+// but not including end, counting down when step is negative. Nothing is
+// materialized; elements and membership are computed from the three numbers.
+final class Range {
+    final long start;
+    final long end;
+    final long step;
+    final long length;
+
+    private Range(long start, long end, long step, long length) {
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.length = length;
+    }
+
+    static Range of(Token name, long start, long end, long step) {
+        return new Range(start, end, step, length(name, start, end, step));
+    }
+
+    // The number of ints a range yields. The differences are taken unsigned, since
+    // they can exceed Long.MAX_VALUE even when the count fits.
+    static long length(Token name, long start, long end, long step) {
+        if (step == 0) throw new RuntimeError(name, "Range step must not be zero.");
+        long count;
+        if (step > 0) {
+            if (start >= end) return 0;
+            count = Long.divideUnsigned(end - start - 1, step) + 1;
+        } else {
+            if (start <= end) return 0;
+            count = Long.divideUnsigned(start - end - 1, -step) + 1;
+        }
+        if (count < 0) throw new RuntimeError(name, "Range is too long.");
+        return count;
+    }
+
+    long get(long index) {
+        return start + index * step;
+    }
+
+    // Yields unboxed longs, which the VM keeps unboxed in its loop variable.
+    PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long index;
+            private long next = start;
+
+            @Override
+            public boolean hasNext() {
+                return index < length;
+            }
+
+            @Override
+            public long nextLong() {
+                if (index >= length) throw new NoSuchElementException();
+                index++;
+                long value = next;
+                next += step;
+                return value;
+            }
+        };
+    }
+
+    // The `count` elements from index `from`, `stride` apart, as a range of its own.
+    Range slice(long from, long stride, long count) {
+        long first = get(from);
+        long by = step * stride;
+        return new Range(first, first + count * by, by, count);
+    }
+
+    boolean contains(Object value) {
+        if (value instanceof Long number) return contains((long) number);
+        if (value instanceof Double number && number == Math.rint(number)
+                && number >= -0x1p63 && number < 0x1p63) {
+            return contains((long) (double) number);
+        }
+        return false;
+    }
+
+    private boolean contains(long value) {
+        long distance;
+        long stride;
+        if (step > 0) {
+            if (value < start) return false;
+            distance = value - start;
+            stride = step;
+        } else {
+            if (value > start) return false;
+            distance = start - value;
+            stride = -step;
+        }
+        return Long.remainderUnsigned(distance, stride) == 0
+                && Long.compareUnsigned(Long.divideUnsigned(distance, stride), length) < 0;
+    }
+
+    // Ranges are equal when they yield the same ints, as in Python.
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Range range) || length != range.length) return false;
+        if (length == 0) return true;
+        return start == range.start && (length == 1 || step == range.step);
+    }
+
+    @Override
+    public int hashCode() {
+        if (length == 0) return 0;
+        return Long.hashCode(start) * 31 + (length == 1 ? 0 : Long.hashCode(step));
+    }
+
+    @Override
+    public String toString() {
+        return step == 1 ? "range(" + start + ", " + end + ")" : "range(" + start + ", " + end + ", " + step + ")";
+    }
+}
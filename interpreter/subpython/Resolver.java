@@ -0,0 +1,467 @@
+package interpreter.subpython;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Static pass run after parsing that gives every variable a fixed (depth, slot).
+//
+// Depth 0 is the frame of the code being run and depth 1 the global frame, so
+// top-level code only ever uses depth 0. Names assigned at the top level are
+// globals. Inside a function, parameters and names assigned in its body get
+// slots in the function's frame, unless they are globals, which the function
+// then updates in place. Blocks do not introduce scopes.
+class Resolver {
+    private final Map<String, Integer> globals;
+    private final Errors errors;
+    private Set<String> moduleNames;
+    private Map<String, Integer> scope; // null while resolving top-level code
+    private int loopDepth;              // loops around the code being resolved
+    // Functions defined at the top level, by name, those defined under @memo and
+    // the pmap calls, which are checked once everything is resolved.
+    private final Map<String, List<Stmt.Function>> moduleFunctions = new HashMap<>();
+    private final List<Stmt.Function> memoized = new ArrayList<>();
+    private final List<Expr.Builtin> parallel = new ArrayList<>();
+    // By function, the locals that may hold what a caller or a global holds.
+    private final Map<Stmt.Function, Set<String>> sharedLocals = new HashMap<>();
+
+    Resolver(Map<String, Integer> globals, Errors errors) {
+        this.globals = globals;
+        this.errors = errors;
+    }
+
+    void resolve(List<Stmt> statements) {
+        moduleNames = new HashSet<>(globals.keySet());
+        collectAssigned(statements, moduleNames, false);
+        scope = null;
+        loopDepth = 0;
+        resolveAll(statements);
+        checkPurity();
+    }
+
+    private void resolveAll(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private boolean isLocal(Token name) {
+        return scope != null && scope.containsKey(name.lexeme);
+    }
+
+    private int depth(Token name) {
+        return scope == null || isLocal(name) ? 0 : 1;
+    }
+
+    private int slot(Token name) {
+        if (isLocal(name)) return scope.get(name.lexeme);
+        return globals.computeIfAbsent(name.lexeme, key -> globals.size());
+    }
+
+    // Statements
+
+    private void resolve(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression expression -> resolve(expression.expression);
+            case Stmt.Print print -> {
+                for (Expr value : print.expressions) resolve(value);
+            }
+            case Stmt.Assignment assignment -> {
+                resolve(assignment.initializer);
+                assignment.depth = depth(assignment.name);
+                assignment.slot = slot(assignment.name);
+            }
+            case Stmt.Block block -> resolveAll(block.statements);
+            case Stmt.If ifStmt -> {
+                for (Expr condition : ifStmt.condition) resolve(condition);
+                for (Stmt branch : ifStmt.thenBranch) resolve(branch);
+                if (ifStmt.elseBranch != null) resolve(ifStmt.elseBranch);
+            }
+            case Stmt.While whileStmt -> {
+                resolve(whileStmt.condition);
+                resolveLoopBody(whileStmt.body);
+            }
+            case Stmt.For forStmt -> {
+                resolve(forStmt.start);
+                resolve(forStmt.end);
+                resolve(forStmt.step);
+                forStmt.depth = depth(forStmt.name);
+                forStmt.slot = slot(forStmt.name);
+                resolveLoopBody(forStmt.body);
+            }
+            case Stmt.ForIterable forIterable -> {
+                resolve(forIterable.iterable);
+                forIterable.depth = depth(forIterable.name);
+                forIterable.slot = slot(forIterable.name);
+                resolveLoopBody(forIterable.body);
+            }
+            case Stmt.Function function -> resolveFunction(function);
+            case Stmt.Return returnStmt -> {
+                if (scope == null) {
+                    errors.error(returnStmt.keyword, "Can't return from top-level code.");
+                }
+                resolve(returnStmt.value);
+            }
+            case Stmt.Break breakStmt -> {
+                if (loopDepth == 0) errors.error(breakStmt.keyword, "Can't use 'break' outside of a loop.");
+            }
+            case Stmt.Continue continueStmt -> {
+                if (loopDepth == 0) errors.error(continueStmt.keyword, "Can't use 'continue' outside of a loop.");
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void resolveLoopBody(Stmt body) {
+        loopDepth++;
+        resolve(body);
+        loopDepth--;
+    }
+
+    private void resolveFunction(Stmt.Function function) {
+        function.depth = depth(function.name);
+        function.slot = slot(function.name);
+        if (scope == null) moduleFunctions.computeIfAbsent(function.name.lexeme, name -> new ArrayList<>()).add(function);
+        if (function.memo > 0) memoized.add(function);
+
+        Map<String, Integer> enclosing = scope;
+        int enclosingLoopDepth = loopDepth;
+        scope = new HashMap<>();
+        loopDepth = 0;
+        for (Token param : function.params) {
+            if (scope.containsKey(param.lexeme)) {
+                errors.error(param, "Duplicate parameter name.");
+            }
+            scope.put(param.lexeme, scope.size());
+        }
+        Set<String> assigned = new HashSet<>();
+        collectAssigned(function.body, assigned, false);
+        for (String name : assigned) {
+            if (!moduleNames.contains(name)) {
+                scope.putIfAbsent(name, scope.size());
+            }
+        }
+        resolveAll(function.body);
+        function.localCount = scope.size();
+        scope = enclosing;
+        loopDepth = enclosingLoopDepth;
+    }
+
+    // Expressions
+
+    private void resolve(Expr expr) {
+        switch (expr) {
+            case null -> {
+            }
+            case Expr.Variable variable -> {
+                variable.depth = depth(variable.name);
+                variable.slot = slot(variable.name);
+            }
+            case Expr.Assignment assignment -> {
+                resolve(assignment.index);
+                resolve(assignment.value);
+                assignment.depth = depth(assignment.name);
+                assignment.slot = slot(assignment.name);
+            }
+            case Expr.Binary binary -> {
+                resolve(binary.left);
+                resolve(binary.right);
+            }
+            case Expr.Logical logical -> {
+                resolve(logical.left);
+                resolve(logical.right);
+            }
+            case Expr.Grouping grouping -> resolve(grouping.expression);
+            case Expr.Unary unary -> resolve(unary.right);
+            case Expr.List_ list -> {
+                for (Expr element : list.elements) resolve(element);
+            }
+            case Expr.Tuple_ tuple -> {
+                for (Expr element : tuple.elements) resolve(element);
+            }
+            case Expr.Index index -> {
+                index.depth = depth(index.identifier);
+                index.slot = slot(index.identifier);
+                resolve(index.start);
+                resolve(index.end);
+                resolve(index.step);
+            }
+            case Expr.Call call -> {
+                call.depth = depth(call.identifier);
+                call.slot = slot(call.identifier);
+                for (Expr argument : call.arguments) resolve(argument);
+            }
+            case Expr.Builtin builtin -> {
+                if (builtin.name.type == TokenType.PMAP) parallel.add(builtin);
+                for (Expr argument : builtin.arguments) resolve(argument);
+            }
+            default -> {
+            }
+        }
+    }
+
+    // Purity: a cached result can only stand in for running a function, and calls
+    // can only run side by side on other threads, if the function neither prints
+    // nor assigns globals, directly or through the functions it calls. Calls are
+    // followed to the top-level functions of the same name; a call to anything
+    // else, such as a function passed in, can't be checked. Runs once the whole
+    // script is resolved, so that every body has its depths.
+
+    private void checkPurity() {
+        for (Stmt.Function function : memoized) {
+            String reason = impurity(function, new HashSet<>());
+            if (reason != null) {
+                errors.error(function.name, "Can't memoize '" + function.name.lexeme + "' because " + reason + ".");
+            }
+        }
+        for (Expr.Builtin map : parallel) {
+            Token name = ((Expr.Variable) map.arguments.get(0)).name;
+            List<Stmt.Function> functions = moduleFunctions.get(name.lexeme);
+            String reason = functions == null ? "it is not a top-level function" : null;
+            Set<Stmt.Function> visited = new HashSet<>();
+            for (int i = 0; reason == null && i < functions.size(); i++) {
+                reason = impurity(functions.get(i), visited);
+            }
+            if (reason != null) {
+                errors.error(name, "Can't run '" + name.lexeme + "' in parallel because " + reason + ".");
+            }
+        }
+    }
+
+    // Why a function is not pure, or null when it is. Functions already visited
+    // are taken to be pure, which leaves the verdict to their first visit.
+    private String impurity(Stmt.Function function, Set<Stmt.Function> visited) {
+        if (!visited.add(function)) return null;
+        return impurity(function.body, function, visited);
+    }
+
+    private String impurity(List<Stmt> statements, Stmt.Function function, Set<Stmt.Function> visited) {
+        for (Stmt statement : statements) {
+            String reason = impurity(statement, function, visited);
+            if (reason != null) return reason;
+        }
+        return null;
+    }
+
+    private String impurity(Stmt stmt, Stmt.Function function, Set<Stmt.Function> visited) {
+        return switch (stmt) {
+            case Stmt.Expression expression -> impurity(expression.expression, function, visited);
+            case Stmt.Print print -> "'" + function.name.lexeme + "' prints";
+            case Stmt.Assignment assignment -> assignment.depth == 1
+                    ? assignsGlobal(function, assignment.name)
+                    : impurity(assignment.initializer, function, visited);
+            case Stmt.Block block -> impurity(block.statements, function, visited);
+            case Stmt.If ifStmt -> {
+                for (Expr condition : ifStmt.condition) {
+                    String reason = impurity(condition, function, visited);
+                    if (reason != null) yield reason;
+                }
+                String reason = impurity(ifStmt.thenBranch, function, visited);
+                yield reason != null || ifStmt.elseBranch == null ? reason : impurity(ifStmt.elseBranch, function, visited);
+            }
+            case Stmt.While whileStmt -> {
+                String reason = impurity(whileStmt.condition, function, visited);
+                yield reason != null ? reason : impurity(whileStmt.body, function, visited);
+            }
+            case Stmt.For forStmt -> {
+                if (forStmt.depth == 1) yield assignsGlobal(function, forStmt.name);
+                String reason = impurity(forStmt.start, function, visited);
+                if (reason == null) reason = impurity(forStmt.end, function, visited);
+                if (reason == null) reason = impurity(forStmt.step, function, visited);
+                yield reason != null ? reason : impurity(forStmt.body, function, visited);
+            }
+            case Stmt.ForIterable forIterable -> {
+                if (forIterable.depth == 1) yield assignsGlobal(function, forIterable.name);
+                String reason = impurity(forIterable.iterable, function, visited);
+                yield reason != null ? reason : impurity(forIterable.body, function, visited);
+            }
+            // A nested function only matters once called, and calls are checked.
+            case Stmt.Function nested -> nested.depth == 1 ? assignsGlobal(function, nested.name) : null;
+            case Stmt.Return returnStmt -> impurity(returnStmt.value, function, visited);
+            default -> null;
+        };
+    }
+
+    private String impurity(Expr expr, Stmt.Function function, Set<Stmt.Function> visited) {
+        return switch (expr) {
+            case null -> null;
+            // Assigning an element of a global list changes the global too, and so
+            // does assigning one of a list passed in or bound from a global.
+            case Expr.Assignment assignment -> {
+                if (assignment.depth == 1) yield assignsGlobal(function, assignment.name);
+                if (assignment.index != null && sharedLocals(function).contains(assignment.name.lexeme)) {
+                    yield "'" + function.name.lexeme + "' assigns an element of '" + assignment.name.lexeme
+                            + "', which may not be its own";
+                }
+                String reason = impurity(assignment.index, function, visited);
+                yield reason != null ? reason : impurity(assignment.value, function, visited);
+            }
+            case Expr.Binary binary -> {
+                String reason = impurity(binary.left, function, visited);
+                yield reason != null ? reason : impurity(binary.right, function, visited);
+            }
+            case Expr.Logical logical -> {
+                String reason = impurity(logical.left, function, visited);
+                yield reason != null ? reason : impurity(logical.right, function, visited);
+            }
+            case Expr.Grouping grouping -> impurity(grouping.expression, function, visited);
+            case Expr.Unary unary -> impurity(unary.right, function, visited);
+            case Expr.List_ list -> impurityOfAll(list.elements, function, visited);
+            case Expr.Tuple_ tuple -> impurityOfAll(tuple.elements, function, visited);
+            case Expr.Index index -> {
+                String reason = impurity(index.start, function, visited);
+                if (reason == null) reason = impurity(index.end, function, visited);
+                yield reason != null ? reason : impurity(index.step, function, visited);
+            }
+            case Expr.Call call -> {
+                String reason = impurityOfAll(call.arguments, function, visited);
+                if (reason != null) yield reason;
+                List<Stmt.Function> callees = call.depth == 1 ? moduleFunctions.get(call.identifier.lexeme) : null;
+                if (callees == null) {
+                    yield "'" + function.name.lexeme + "' calls '" + call.identifier.lexeme
+                            + "', which is not a top-level function";
+                }
+                for (Stmt.Function callee : callees) {
+                    reason = impurity(callee, visited);
+                    if (reason != null) yield reason;
+                }
+                yield null;
+            }
+            case Expr.Builtin builtin -> impurityOfAll(builtin.arguments, function, visited);
+            default -> null;
+        };
+    }
+
+    private String impurityOfAll(List<Expr> expressions, Stmt.Function function, Set<Stmt.Function> visited) {
+        for (Expr expr : expressions) {
+            String reason = impurity(expr, function, visited);
+            if (reason != null) return reason;
+        }
+        return null;
+    }
+
+    // The parameters, the variables of for-in loops, and the locals assigned
+    // anything but a fresh value.
+    private Set<String> sharedLocals(Stmt.Function function) {
+        return sharedLocals.computeIfAbsent(function, key -> {
+            Set<String> names = new HashSet<>();
+            for (Token param : function.params) names.add(param.lexeme);
+            collectAssigned(function.body, names, true);
+            return names;
+        });
+    }
+
+    private static String assignsGlobal(Stmt.Function function, Token name) {
+        return "'" + function.name.lexeme + "' assigns global '" + name.lexeme + "'";
+    }
+
+    // Scope analysis: the names a list of statements assigns, not counting the
+    // bodies of nested functions, which have scopes of their own. With sharedOnly,
+    // only those that may be given a value someone else holds too.
+
+    // Whether the value is new each time it is evaluated. A list is either a
+    // literal or a slice, which copies before it is first written; every other
+    // value that can be assigned to an element is a fresh string or number.
+    private static boolean isFresh(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal literal -> true;
+            case Expr.List_ list -> true;
+            case Expr.Tuple_ tuple -> true;
+            case Expr.Binary binary -> true;
+            case Expr.Unary unary -> true;
+            case Expr.Builtin builtin -> true;
+            case Expr.Grouping grouping -> isFresh(grouping.expression);
+            case Expr.Index index -> index.end != null;
+            default -> false;
+        };
+    }
+
+    private void collectAssigned(List<Stmt> statements, Set<String> names, boolean sharedOnly) {
+        for (Stmt statement : statements) {
+            collectAssigned(statement, names, sharedOnly);
+        }
+    }
+
+    private void collectAssigned(Stmt stmt, Set<String> names, boolean sharedOnly) {
+        switch (stmt) {
+            case Stmt.Expression expression -> collectAssigned(expression.expression, names, sharedOnly);
+            case Stmt.Print print -> {
+                for (Expr value : print.expressions) collectAssigned(value, names, sharedOnly);
+            }
+            case Stmt.Assignment assignment -> {
+                if (!sharedOnly || !isFresh(assignment.initializer)) names.add(assignment.name.lexeme);
+                collectAssigned(assignment.initializer, names, sharedOnly);
+            }
+            case Stmt.Block block -> collectAssigned(block.statements, names, sharedOnly);
+            case Stmt.If ifStmt -> {
+                for (Expr condition : ifStmt.condition) collectAssigned(condition, names, sharedOnly);
+                collectAssigned(ifStmt.thenBranch, names, sharedOnly);
+                if (ifStmt.elseBranch != null) collectAssigned(ifStmt.elseBranch, names, sharedOnly);
+            }
+            case Stmt.While whileStmt -> {
+                collectAssigned(whileStmt.condition, names, sharedOnly);
+                collectAssigned(whileStmt.body, names, sharedOnly);
+            }
+            case Stmt.For forStmt -> {
+                if (!sharedOnly) names.add(forStmt.name.lexeme);
+                collectAssigned(forStmt.body, names, sharedOnly);
+            }
+            case Stmt.ForIterable forIterable -> {
+                names.add(forIterable.name.lexeme);
+                collectAssigned(forIterable.iterable, names, sharedOnly);
+                collectAssigned(forIterable.body, names, sharedOnly);
+            }
+            case Stmt.Function function -> names.add(function.name.lexeme);
+            case Stmt.Return returnStmt -> collectAssigned(returnStmt.value, names, sharedOnly);
+            default -> {
+            }
+        }
+    }
+
+    private void collectAssigned(Expr expr, Set<String> names, boolean sharedOnly) {
+        switch (expr) {
+            case null -> {
+            }
+            case Expr.Assignment assignment -> {
+                if (assignment.index == null && (!sharedOnly || !isFresh(assignment.value))) {
+                    names.add(assignment.name.lexeme);
+                }
+                collectAssigned(assignment.value, names, sharedOnly);
+                collectAssigned(assignment.index, names, sharedOnly);
+            }
+            case Expr.Binary binary -> {
+                collectAssigned(binary.left, names, sharedOnly);
+                collectAssigned(binary.right, names, sharedOnly);
+            }
+            case Expr.Logical logical -> {
+                collectAssigned(logical.left, names, sharedOnly);
+                collectAssigned(logical.right, names, sharedOnly);
+            }
+            case Expr.Grouping grouping -> collectAssigned(grouping.expression, names, sharedOnly);
+            case Expr.Unary unary -> collectAssigned(unary.right, names, sharedOnly);
+            case Expr.List_ list -> {
+                for (Expr element : list.elements) collectAssigned(element, names, sharedOnly);
+            }
+            case Expr.Tuple_ tuple -> {
+                for (Expr element : tuple.elements) collectAssigned(element, names, sharedOnly);
+            }
+            case Expr.Index index -> {
+                collectAssigned(index.start, names, sharedOnly);
+                collectAssigned(index.end, names, sharedOnly);
+                collectAssigned(index.step, names, sharedOnly);
+            }
+            case Expr.Call call -> {
+                for (Expr argument : call.arguments) collectAssigned(argument, names, sharedOnly);
+            }
+            case Expr.Builtin builtin -> {
+                for (Expr argument : builtin.arguments) collectAssigned(argument, names, sharedOnly);
+            }
+            default -> {
+            }
+        }
+    }
+}
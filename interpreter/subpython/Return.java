@@ -1,12 +0,0 @@
-package interpreter.subpython;
-
-class Return extends RuntimeException {
-
-    final Object value;
-
-    public Return(Object value) {
-        super(null, null, false, false);
-        this.value = value;
-    }
-
-}
@@ -1,20 +1,38 @@
 package interpreter.subpython;
 
 import static interpreter.subpython.TokenType.*;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
-class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+// Produces tokens on demand through nextToken(). Only the tokens of the current
+// source position are buffered: one, or a run of INDENT/DEDENT tokens.
+//
+// The source is scanned as UTF-8 bytes, so a script file can be memory-mapped and
+// scanned in place. Everything outside string literals is ASCII; identifier,
+// keyword, operator and number lexemes are interned straight from the bytes, so
+// repeated lexemes share one String instead of each token copying its own.
+class Scanner implements TokenSource {
+    private final ByteBuffer source;
+    private final int length;
+    private final ArrayDeque<Token> pending = new ArrayDeque<>();
+    private boolean reachedEnd = false;
     private int start = 0;
     private int current = 0;
     private int line = 1;
     private Stack<Integer> indentationStack = new Stack<>();
     private boolean isBeginningOfLine = true;
+    private final Errors errors;
 
     private static final Map<String, TokenType> keywords;
 
@@ -35,31 +53,70 @@ class Scanner {
         keywords.put("while", WHILE);
         keywords.put("in", IN);
         keywords.put("range", RANGE);
+        keywords.put("len", LEN);
+        keywords.put("pmap", PMAP);
         keywords.put("def", DEF);
+        keywords.put("break", BREAK);
+        keywords.put("continue", CONTINUE);
     }
 
-    Scanner(String source) {
+    // Interned lexemes, an open-addressing table keyed by String.hashCode(), which
+    // for ASCII text is the same hash as the bytes'.
+    private String[] lexemes = new String[256];
+    private int lexemeCount = 0;
+
+    Scanner(String source, Errors errors) {
+        this(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)), errors);
+    }
+
+    Scanner(ByteBuffer source, Errors errors) {
         this.source = source;
+        this.length = source.limit();
+        this.errors = errors;
         indentationStack.push(0);
     }
 
+    // Maps the file instead of reading it into the heap. Files over 2 GB can't be
+    // mapped as one buffer and are rejected.
+    static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Script is too large: " + path);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // All the tokens at once, up to and including EOF.
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    @Override
+    public Token nextToken() {
+        while (pending.isEmpty()) {
+            if (isAtEnd()) {
+                if (reachedEnd) return new Token(EOF, "", null, line);
+                reachedEnd = true;
+                // Close any remaining indentation levels
+                while (indentationStack.size() > 1) {
+                    addToken(DEDENT);
+                    indentationStack.pop();
+                }
+                pending.add(new Token(EOF, "", null, line));
+                break;
+            }
             start = current;
             if (isBeginningOfLine) {
                 handleIndentation();
             }
             scanToken();
         }
-
-        // Close any remaining indentation levels
-        while (indentationStack.size() > 1) {
-            addToken(DEDENT);
-            indentationStack.pop();
-        }
-
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        return pending.poll();
     }
 
     private void handleIndentation() {
@@ -100,24 +157,28 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
+    }
+
+    private char charAt(int index) {
+        return (char) (source.get(index) & 0xff);
     }
 
     private char advance() {
         current++;
-        return source.charAt(current - 1);
+        return charAt(current - 1);
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (charAt(current) != expected) return false;
         current++;
         return true;
     }
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
 
     private void addToken(TokenType type) {
@@ -126,11 +187,10 @@ class Scanner {
 
     private void addToken(TokenType type, Object literal) {
         if(TokenType.INDENT == type || TokenType.DEDENT == type || TokenType.NEW_LINE == type) {
-            tokens.add(new Token(type, "", literal, line));
+            pending.add(new Token(type, "", literal, line));
             return;
         }
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        pending.add(new Token(type, intern(start, current), literal, line));
     }
 
     private void scanToken() {
@@ -147,6 +207,7 @@ class Scanner {
             case '-' -> addToken(MINUS);
             case '+' -> addToken(PLUS);
             case ':' -> addToken(COLON);
+            case '@' -> addToken(AT);
             case '*' -> addToken(match('*') ? POW : STAR);
             case '%' -> addToken(MOD);
             case '!' -> addToken(match('=') ? BANG_EQUAL : BANG);
@@ -155,9 +216,10 @@ class Scanner {
             case '>' -> addToken(match('=') ? GREATER_EQUAL : GREATER);
             case '/' -> addToken(SLASH);
             case '#' -> {
-                while (peek() != '\n' && !isAtEnd()) advance();
+                while (current < length && source.get(current) != '\n') current++;
             }
             case ' ', '\r', '\t' -> {
+                while (current < length && isBlank(source.get(current))) current++;
             }
             case '\n' -> {
                 addToken(NEW_LINE);
@@ -170,8 +232,9 @@ class Scanner {
                     number();
                 } else if (isAlpha(c)) {
                     identifier();
-                } else {
-                    Subpython.error(line, "Unexpected character.");
+                } else if ((c & 0xc0) != 0x80) {
+                    // Reported once per character, not for each UTF-8 continuation byte.
+                    errors.error(line, "Unexpected character.");
                 }
             }
         }
@@ -189,11 +252,14 @@ class Scanner {
         return isAlpha(c) || isDigit(c);
     }
 
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\r' || b == '\t';
+    }
+
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        TokenType type = keywords.get(intern(start, current));
         if (type == null) type = IDENTIFIER;
         addToken(type);
     }
@@ -204,28 +270,95 @@ class Scanner {
         if (peek() == '.' && isDigit(peekNext())) {
             advance();
             while (isDigit(peek())) advance();
+            addToken(NUMBER, Double.valueOf(intern(start, current)));
+            return;
         }
 
-        addToken(NUMBER, Double.valueOf(source.substring(start, current)));
+        // Ints are 64-bit and only become BigIntegers when they don't fit.
+        if (current - start < 19) {
+            long value = 0;
+            for (int i = start; i < current; i++) {
+                value = value * 10 + (source.get(i) - '0');
+            }
+            addToken(NUMBER, value);
+        } else {
+            addToken(NUMBER, Operators.normalize(new BigInteger(intern(start, current))));
+        }
     }
 
     private char peekNext() {
-        return (current + 1 >= source.length()) ? '\0' : source.charAt(current + 1);
+        return (current + 1 >= length) ? '\0' : charAt(current + 1);
     }
 
     private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            advance();
+        while (current < length) {
+            byte b = source.get(current);
+            if (b == '"') break;
+            if (b == '\n') line++;
+            current++;
         }
 
         if (isAtEnd()) {
-            Subpython.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        // The contents are decoded once, to serve as both the lexeme and the value.
+        String text = decode(start + 1, current - 1);
+        pending.add(new Token(STRING, text, text, line));
+    }
+
+    private String decode(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The ASCII text between from and to, as a String shared by all equal lexemes.
+    private String intern(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + source.get(i);
+        }
+        int mask = lexemes.length - 1;
+        for (int index = hash & mask; ; index = (index + 1) & mask) {
+            String lexeme = lexemes[index];
+            if (lexeme == null) {
+                lexeme = new String(decodeAscii(from, to));
+                lexemes[index] = lexeme;
+                if (++lexemeCount * 2 > lexemes.length) growLexemes();
+                return lexeme;
+            }
+            if (lexeme.hashCode() == hash && sameText(lexeme, from, to)) return lexeme;
+        }
+    }
+
+    private char[] decodeAscii(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = charAt(i);
+        }
+        return chars;
+    }
+
+    private boolean sameText(String lexeme, int from, int to) {
+        if (lexeme.length() != to - from) return false;
+        for (int i = from; i < to; i++) {
+            if (lexeme.charAt(i - from) != charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void growLexemes() {
+        String[] old = lexemes;
+        lexemes = new String[old.length * 2];
+        int mask = lexemes.length - 1;
+        for (String lexeme : old) {
+            if (lexeme == null) continue;
+            int index = lexeme.hashCode() & mask;
+            while (lexemes[index] != null) index = (index + 1) & mask;
+            lexemes[index] = lexeme;
+        }
     }
 }
@@ -0,0 +1,140 @@
+package interpreter.subpython;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A script compiled and run once, whose functions can then be called from Java
+// any number of times. The scanning, parsing and compiling all happen in
+// compile; a call only converts its arguments, puts them into the frame at the
+// bottom of the VM's stack and runs the function's bytecode.
+//
+//     Script pricing = Script.compile(source);
+//     Object fee = pricing.invoke("fee", 120, "NL");
+//     List<Object> fees = pricing.invokeAll("fee", rows);
+//
+// A Script keeps one VM, with the globals its top-level code left behind, so
+// calls on it take turns. Threads that want to call at the same time each
+// compile their own, or run a shared Program.
+public final class Script {
+    private final VM vm;
+    private final Map<String, Integer> globalSlots;
+    // The functions looked up so far, with argument arrays to convert into.
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private record Entry(int slot, Object[] arguments) {}
+
+    private Script(VM vm, Map<String, Integer> globalSlots) {
+        this.vm = vm;
+        this.globalSlots = globalSlots;
+    }
+
+    public static Script compile(String source) throws ScriptException {
+        return compile(source, System.out);
+    }
+
+    // Compiles the script and runs its top-level code, with print writing to out.
+    public static Script compile(String source, Appendable out) throws ScriptException {
+        Program program = Program.compile(source);
+        VM vm = new VM();
+        vm.errors = new Errors();
+        vm.output = new Output(Output.FULL, out);
+        Events.Execute event = Events.beginExecute();
+        vm.execute(program.script, program.globalSlots.size());
+        if (event != null) Events.endExecute(event, "vm");
+        if (vm.errors.hadError) throw new ScriptException(vm.errors.messages());
+        return new Script(vm, program.globalSlots);
+    }
+
+    // Calls the script's top-level function of that name and returns its result:
+    // ints as Long or BigInteger, floats as Double, strings as String, and lists
+    // and tuples as unmodifiable lists of those.
+    public synchronized Object invoke(String functionName, Object... args) throws ScriptException {
+        try {
+            return call(functionName, entry(functionName, args.length), args);
+        } finally {
+            vm.output.flush();
+        }
+    }
+
+    // Calls the function once for each row of arguments, in order, and returns
+    // the results in a list. Output is flushed once, at the end.
+    public synchronized List<Object> invokeAll(String functionName, List<Object[]> rows) throws ScriptException {
+        List<Object> results = new ArrayList<>(rows.size());
+        if (rows.isEmpty()) return results;
+        Entry entry = entry(functionName, rows.get(0).length);
+        try {
+            for (Object[] row : rows) results.add(call(functionName, entry, row));
+        } finally {
+            vm.output.flush();
+        }
+        return results;
+    }
+
+    private Entry entry(String functionName, int argCount) {
+        Entry entry = entries.get(functionName);
+        if (entry != null && entry.arguments.length == argCount) return entry;
+        Integer slot = globalSlots.get(functionName);
+        if (slot == null) throw new IllegalArgumentException("No function '" + functionName + "' in script.");
+        entry = new Entry(slot, new Object[argCount]);
+        entries.put(functionName, entry);
+        return entry;
+    }
+
+    private Object call(String functionName, Entry entry, Object[] row) throws ScriptException {
+        // Looked up on every call: the function may have reassigned its own name.
+        if (!(vm.global(entry.slot) instanceof Function function)) {
+            throw new IllegalArgumentException("'" + functionName + "' is not a function.");
+        }
+        Object[] arguments = entry.arguments;
+        if (function.arity() != row.length || row.length != arguments.length) {
+            throw new IllegalArgumentException(
+                    "'" + functionName + "' expects " + function.arity() + " arguments but got " + row.length + ".");
+        }
+        for (int i = 0; i < arguments.length; i++) arguments[i] = Program.toScript(row[i]);
+        try {
+            Memo memo = function.memo;
+            if (memo == null) return toJava(vm.invoke(function, arguments));
+            Object key = Memo.key(arguments);
+            if (key == null) {
+                memo.bypassed();
+                return toJava(vm.invoke(function, arguments));
+            }
+            Object result = memo.get(key);
+            if (result == Memo.MISSING) {
+                result = vm.invoke(function, arguments);
+                memo.put(key, result);
+            }
+            return toJava(result);
+        } catch (RuntimeError error) {
+            vm.errors.clear();
+            vm.errors.error(error.token, error.getMessage());
+            throw new ScriptException(vm.errors.messages());
+        } finally {
+            // Let go of the row's values until the next call.
+            Arrays.fill(arguments, null);
+        }
+    }
+
+    // A script value as Java sees it; the inverse of Program.toScript.
+    static Object toJava(Object value) {
+        return switch (value) {
+            case null -> null;
+            case Long number -> number;
+            case BigInteger number -> number;
+            case Double number -> number;
+            case Boolean bool -> bool;
+            case CharSequence string -> string.toString();
+            case List<?> list -> {
+                List<Object> converted = new ArrayList<>(list.size());
+                for (Object element : list) converted.add(toJava(element));
+                yield Collections.unmodifiableList(converted);
+            }
+            default -> throw new IllegalArgumentException("Can't return " + Operators.stringify(value) + " to Java.");
+        };
+    }
+}
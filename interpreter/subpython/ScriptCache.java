@@ -0,0 +1,446 @@
+package interpreter.subpython;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// On-disk cache of parsed scripts, like Python's __pycache__. The statements of
+// script.py are stored in __pycache__/script.spc next to it, after a header with
+// the format version and the SHA-256 of the source they were parsed from. A run
+// whose source hashes the same loads them and skips the Scanner and Parser.
+//
+// The body is the tree in prefix order: a tag byte per node followed by its
+// fields. Ints are varints, token lines are deltas from the previous token's line,
+// and every string is written once and then referred to by index. Resolver
+// annotations are not stored; the tree is resolved again after loading.
+final class ScriptCache {
+    private ScriptCache() {}
+
+    private static final int MAGIC = 0x53505943; // "SPYC"
+    // Bump whenever Expr, Stmt, Token or the encoding below changes.
+    private static final int FORMAT = 6;
+
+    // Value tags for literals.
+    private static final int NONE = 0, FALSE = 1, TRUE = 2, INT = 3, BIG_INT = 4, FLOAT = 5, STRING = 6;
+    // Node tags; 0 marks an absent (null) node.
+    private static final int ABSENT = 0;
+    private static final int EXPRESSION = 1, IF = 2, PRINT = 3, ASSIGN_STMT = 4, BLOCK = 5, WHILE = 6,
+            FOR = 7, FOR_ITERABLE = 8, FUNCTION = 9, RETURN = 10, BREAK = 11, CONTINUE = 12;
+    private static final int BINARY = 1, GROUPING = 2, LITERAL = 3, UNARY = 4, ASSIGN_EXPR = 5, VARIABLE = 6,
+            LOGICAL = 7, LIST = 8, TUPLE = 9, INDEX = 10, CALL = 11, BUILTIN = 12;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    static byte[] hash(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static Path cacheFile(Path script) {
+        Path directory = script.toAbsolutePath().getParent().resolve("__pycache__");
+        String name = script.getFileName().toString();
+        if (name.endsWith(".py")) name = name.substring(0, name.length() - 3);
+        return directory.resolve(name + ".spc");
+    }
+
+    // The cached statements, or null when there is no usable cache for this source.
+    static List<Stmt> load(Path script, byte[] hash) {
+        Path file = cacheFile(script);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT) return null;
+            byte[] stored = new byte[hash.length];
+            in.get(stored);
+            if (!Arrays.equals(stored, hash)) return null;
+            return new Reader(in).statements();
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException ex) {
+            // A truncated, corrupt or foreign file is treated as a miss and rewritten.
+            return null;
+        }
+    }
+
+    // Best effort: a read-only directory just means no cache.
+    static void store(Path script, byte[] hash, List<Stmt> statements) {
+        Path file = cacheFile(script);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.write(hash);
+            new Writer(out).statements(statements);
+            out.flush();
+
+            Files.createDirectories(file.getParent());
+            Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException ex) {
+            // Leave the script uncached.
+        }
+    }
+
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private int line = 0;
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void statements(List<Stmt> statements) throws IOException {
+            varint(statements.size());
+            for (Stmt statement : statements) stmt(statement);
+        }
+
+        void expressions(List<Expr> expressions) throws IOException {
+            varint(expressions.size());
+            for (Expr expression : expressions) expr(expression);
+        }
+
+        void stmt(Stmt stmt) throws IOException {
+            switch (stmt) {
+                case null -> varint(ABSENT);
+                case Stmt.Expression expression -> {
+                    varint(EXPRESSION);
+                    expr(expression.expression);
+                }
+                case Stmt.If ifStmt -> {
+                    varint(IF);
+                    expressions(ifStmt.condition);
+                    statements(ifStmt.thenBranch);
+                    stmt(ifStmt.elseBranch);
+                }
+                case Stmt.Print print -> {
+                    varint(PRINT);
+                    expressions(print.expressions);
+                }
+                case Stmt.Assignment assignment -> {
+                    varint(ASSIGN_STMT);
+                    token(assignment.name);
+                    expr(assignment.initializer);
+                }
+                case Stmt.Block block -> {
+                    varint(BLOCK);
+                    statements(block.statements);
+                }
+                case Stmt.While whileStmt -> {
+                    varint(WHILE);
+                    expr(whileStmt.condition);
+                    stmt(whileStmt.body);
+                }
+                case Stmt.For forStmt -> {
+                    varint(FOR);
+                    token(forStmt.name);
+                    expr(forStmt.start);
+                    expr(forStmt.end);
+                    expr(forStmt.step);
+                    stmt(forStmt.body);
+                }
+                case Stmt.ForIterable forIterable -> {
+                    varint(FOR_ITERABLE);
+                    token(forIterable.name);
+                    expr(forIterable.iterable);
+                    stmt(forIterable.body);
+                }
+                case Stmt.Function function -> {
+                    varint(FUNCTION);
+                    token(function.name);
+                    varint(function.params.size());
+                    for (Token param : function.params) token(param);
+                    statements(function.body);
+                    varint(function.memo);
+                }
+                case Stmt.Return returnStmt -> {
+                    varint(RETURN);
+                    token(returnStmt.keyword);
+                    expr(returnStmt.value);
+                }
+                case Stmt.Break breakStmt -> {
+                    varint(BREAK);
+                    token(breakStmt.keyword);
+                }
+                case Stmt.Continue continueStmt -> {
+                    varint(CONTINUE);
+                    token(continueStmt.keyword);
+                }
+                default -> throw new IOException("Unknown statement " + stmt.getClass().getSimpleName());
+            }
+        }
+
+        void expr(Expr expr) throws IOException {
+            switch (expr) {
+                case null -> varint(ABSENT);
+                case Expr.Binary binary -> {
+                    varint(BINARY);
+                    expr(binary.left);
+                    token(binary.operator);
+                    expr(binary.right);
+                }
+                case Expr.Grouping grouping -> {
+                    varint(GROUPING);
+                    expr(grouping.expression);
+                }
+                case Expr.Literal literal -> {
+                    varint(LITERAL);
+                    value(literal.value);
+                    token(literal.token);
+                }
+                case Expr.Unary unary -> {
+                    varint(UNARY);
+                    token(unary.operator);
+                    expr(unary.right);
+                }
+                case Expr.Assignment assignment -> {
+                    varint(ASSIGN_EXPR);
+                    token(assignment.name);
+                    expr(assignment.value);
+                    expr(assignment.index);
+                }
+                case Expr.Variable variable -> {
+                    varint(VARIABLE);
+                    token(variable.name);
+                }
+                case Expr.Logical logical -> {
+                    varint(LOGICAL);
+                    expr(logical.left);
+                    token(logical.operator);
+                    expr(logical.right);
+                }
+                case Expr.List_ list -> {
+                    varint(LIST);
+                    expressions(list.elements);
+                }
+                case Expr.Tuple_ tuple -> {
+                    varint(TUPLE);
+                    expressions(tuple.elements);
+                }
+                case Expr.Index index -> {
+                    varint(INDEX);
+                    token(index.identifier);
+                    expr(index.start);
+                    expr(index.end);
+                    expr(index.step);
+                }
+                case Expr.Call call -> {
+                    varint(CALL);
+                    token(call.identifier);
+                    expressions(call.arguments);
+                }
+                case Expr.Builtin builtin -> {
+                    varint(BUILTIN);
+                    token(builtin.name);
+                    expressions(builtin.arguments);
+                }
+                default -> throw new IOException("Unknown expression " + expr.getClass().getSimpleName());
+            }
+        }
+
+        // Tokens in the tree are names, operators, keywords and the tokens literals
+        // came from; their literal is unused.
+        void token(Token token) throws IOException {
+            varint(token.type.ordinal());
+            string(token.lexeme);
+            int delta = token.line - line;
+            varint((delta << 1) ^ (delta >> 31));
+            line = token.line;
+        }
+
+        void value(Object value) throws IOException {
+            switch (value) {
+                case null -> varint(NONE);
+                case Boolean bool -> varint(bool ? TRUE : FALSE);
+                case Long number -> {
+                    varint(INT);
+                    out.writeLong(number);
+                }
+                case BigInteger number -> {
+                    varint(BIG_INT);
+                    byte[] bytes = number.toByteArray();
+                    varint(bytes.length);
+                    out.write(bytes);
+                }
+                case Double number -> {
+                    varint(FLOAT);
+                    out.writeDouble(number);
+                }
+                case String text -> {
+                    varint(STRING);
+                    string(text);
+                }
+                default -> throw new IOException("Unknown literal " + value.getClass().getSimpleName());
+            }
+        }
+
+        // The first occurrence is written as its index followed by the UTF-8 bytes,
+        // later ones as the index alone.
+        void string(String text) throws IOException {
+            Integer index = strings.get(text);
+            if (index != null) {
+                varint(index);
+                return;
+            }
+            varint(strings.size());
+            strings.put(text, strings.size());
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            out.write(bytes);
+        }
+
+        void varint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+        private int line = 0;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        List<Stmt> statements() {
+            int count = count();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) statements.add(stmt());
+            return statements;
+        }
+
+        List<Expr> expressions() {
+            int count = count();
+            List<Expr> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) expressions.add(expr());
+            return expressions;
+        }
+
+        Stmt stmt() {
+            return switch (varint()) {
+                case ABSENT -> null;
+                case EXPRESSION -> new Stmt.Expression(expr());
+                case IF -> new Stmt.If(expressions(), statements(), stmt());
+                case PRINT -> new Stmt.Print(expressions());
+                case ASSIGN_STMT -> new Stmt.Assignment(token(), expr());
+                case BLOCK -> new Stmt.Block(statements());
+                case WHILE -> new Stmt.While(expr(), stmt());
+                case FOR -> new Stmt.For(token(), expr(), expr(), expr(), stmt());
+                case FOR_ITERABLE -> new Stmt.ForIterable(token(), expr(), stmt());
+                case FUNCTION -> {
+                    Token name = token();
+                    int count = count();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) params.add(token());
+                    List<Stmt> body = statements();
+                    int memo = varint();
+                    if (memo < 0) throw new IllegalArgumentException("Corrupt script cache.");
+                    yield new Stmt.Function(name, params, body, memo);
+                }
+                case RETURN -> new Stmt.Return(token(), expr());
+                case BREAK -> new Stmt.Break(token());
+                case CONTINUE -> new Stmt.Continue(token());
+                default -> throw new IllegalArgumentException("Corrupt script cache.");
+            };
+        }
+
+        Expr expr() {
+            return switch (varint()) {
+                case ABSENT -> null;
+                case BINARY -> new Expr.Binary(expr(), token(), expr());
+                case GROUPING -> new Expr.Grouping(expr());
+                case LITERAL -> new Expr.Literal(value(), token());
+                case UNARY -> new Expr.Unary(token(), expr());
+                case ASSIGN_EXPR -> new Expr.Assignment(token(), expr(), expr());
+                case VARIABLE -> new Expr.Variable(token());
+                case LOGICAL -> new Expr.Logical(expr(), token(), expr());
+                case LIST -> new Expr.List_(expressions());
+                case TUPLE -> new Expr.Tuple_(expressions());
+                case INDEX -> new Expr.Index(token(), expr(), expr(), expr());
+                case CALL -> new Expr.Call(token(), expressions());
+                case BUILTIN -> new Expr.Builtin(token(), expressions());
+                default -> throw new IllegalArgumentException("Corrupt script cache.");
+            };
+        }
+
+        Token token() {
+            int type = varint();
+            if (type < 0 || type >= TOKEN_TYPES.length) throw new IllegalArgumentException("Corrupt script cache.");
+            String lexeme = string();
+            int delta = varint();
+            line += (delta >>> 1) ^ -(delta & 1);
+            return new Token(TOKEN_TYPES[type], lexeme, null, line);
+        }
+
+        Object value() {
+            return switch (varint()) {
+                case NONE -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                case INT -> in.getLong();
+                case BIG_INT -> {
+                    byte[] bytes = new byte[count()];
+                    in.get(bytes);
+                    yield new BigInteger(bytes);
+                }
+                case FLOAT -> in.getDouble();
+                case STRING -> string();
+                default -> throw new IllegalArgumentException("Corrupt script cache.");
+            };
+        }
+
+        String string() {
+            int index = varint();
+            if (index >= 0 && index < strings.size()) return strings.get(index);
+            if (index != strings.size()) throw new IllegalArgumentException("Corrupt script cache.");
+            byte[] bytes = new byte[count()];
+            in.get(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(text);
+            return text;
+        }
+
+        // A number of elements or bytes still to come, each of which takes at least
+        // a byte, so that a corrupt count fails here rather than allocating.
+        int count() {
+            int count = varint();
+            if (count < 0 || count > in.remaining()) throw new IllegalArgumentException("Corrupt script cache.");
+            return count;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                // An int takes at most five bytes.
+                if (shift > 28) throw new IllegalArgumentException("Corrupt script cache.");
+                byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package interpreter.subpython;
+
+import java.io.Serial;
+import java.util.List;
+
+// The errors that stopped an embedded script from compiling or running, as the
+// command line would have printed them.
+public class ScriptException extends Exception {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // List.copyOf makes a serializable list, whatever the declared type says.
+    @SuppressWarnings("serial")
+    private final List<String> errors;
+
+    ScriptException(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = List.copyOf(errors);
+    }
+
+    public List<String> errors() {
+        return errors;
+    }
+}
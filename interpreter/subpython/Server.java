@@ -0,0 +1,231 @@
+package interpreter.subpython;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// subpython --serve=<socket>: a long-running JVM that runs scripts for Client
+// over a Unix domain socket, so that a short script costs a connection instead
+// of JVM startup and warm-up. Each connection runs on a virtual thread of its
+// own, as a Program run with its own globals, output and errors.
+//
+// A request is one frame: PATH with the script's absolute path, or SOURCE with
+// the script itself. The reply is OUT and ERR frames carrying the script's
+// stdout and stderr as they are written, then an EXIT frame with the status the
+// command line would have exited with. A frame is its kind byte, the length of
+// its payload as an int, and the payload. A run still going after DEADLINE is
+// stopped and reported as a runtime error, so a script that never ends can't
+// hold on to its connection forever.
+//
+// Compiled scripts are kept in an LRU, keyed by path for files and by the
+// SHA-256 of the source for the rest, so that running an unchanged script again
+// skips straight to the run. A file is read on every run and only runs from the
+// cache while its size and digest match what was compiled: modification times
+// are too coarse, and restoring a file can bring an old one back. The cache is
+// bounded both in scripts and in the bytes of source they were compiled from,
+// which stands in for the size of the compiled code.
+final class Server {
+    static final byte PATH = 'p';
+    static final byte SOURCE = 's';
+    static final byte OUT = 'o';
+    static final byte ERR = 'e';
+    static final byte EXIT = 'x';
+
+    // Larger requests are refused rather than read into memory.
+    static final int MAX_REQUEST = 16 << 20;
+    static final int CAPACITY = 256;
+    static final long MAX_CACHED_SOURCE = 64 << 20;
+    static final Duration DEADLINE = Duration.ofSeconds(30);
+
+    // A script sent inline, by the digest of its UTF-8 bytes. Files are keyed by
+    // their Path.
+    private record Inline(String sha256) {}
+
+    // A compiled script, with the size and digest of the source it came from.
+    private record Cached(Program program, int size, String sha256) {}
+
+    private final Path socket;
+    // Guarded by itself, as is cachedSource.
+    private final LinkedHashMap<Object, Cached> programs = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedSource;
+
+    Server(Path socket) {
+        this.socket = socket;
+    }
+
+    void serve() throws IOException {
+        // A socket file left behind by a server that was killed.
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ex) {
+                    // Nothing left to report it to.
+                }
+            }));
+            System.err.println("Serving scripts on " + socket);
+            for (;;) {
+                SocketChannel connection = server.accept();
+                connections.submit(() -> handle(connection));
+            }
+        }
+    }
+
+    private void handle(SocketChannel connection) {
+        try (connection) {
+            Frames frames = new Frames(connection);
+            frames.exit(run(connection, frames));
+        } catch (IOException | UncheckedIOException ex) {
+            // The client went away, maybe mid-run; there is no one left to answer.
+        }
+    }
+
+    // Runs the requested script and returns its exit status.
+    private int run(SocketChannel connection, Frames frames) throws IOException {
+        ByteBuffer header = read(connection, ByteBuffer.allocate(5));
+        byte kind = header.get();
+        int length = header.getInt();
+        if ((kind != PATH && kind != SOURCE) || length < 0 || length > MAX_REQUEST) {
+            frames.err("Malformed request.\n");
+            return 64;
+        }
+        ByteBuffer bytes = read(connection, ByteBuffer.allocate(length));
+        String request;
+        try {
+            request = StandardCharsets.UTF_8.newDecoder().decode(bytes.duplicate()).toString();
+        } catch (CharacterCodingException ex) {
+            frames.err("Request is not UTF-8.\n");
+            return 64;
+        }
+
+        Program program;
+        try {
+            if (kind == PATH) {
+                program = load(Path.of(request));
+            } else {
+                String sha256 = HexFormat.of().formatHex(ScriptCache.hash(bytes));
+                program = compile(new Inline(sha256), request, length, sha256);
+            }
+        } catch (NoSuchFileException ex) {
+            frames.err("No such script: " + request + "\n");
+            return 66;
+        } catch (ScriptException ex) {
+            frames.err(ex.getMessage() + "\n");
+            return 65;
+        }
+        try {
+            program.run(Map.of(), frames, DEADLINE);
+        } catch (ScriptException ex) {
+            frames.err(ex.getMessage() + "\n");
+            return 70;
+        }
+        return 0;
+    }
+
+    private Program load(Path path) throws IOException, ScriptException {
+        byte[] bytes = Files.readAllBytes(path);
+        String sha256 = HexFormat.of().formatHex(ScriptCache.hash(ByteBuffer.wrap(bytes)));
+        return compile(path, new String(bytes, StandardCharsets.UTF_8), bytes.length, sha256);
+    }
+
+    // Compiles outside the lock, so a long compile holds up no one else's run.
+    private Program compile(Object key, String source, int size, String sha256) throws ScriptException {
+        Program program = cached(key, size, sha256);
+        if (program != null) return program;
+        program = Program.compile(source);
+        if (size > MAX_CACHED_SOURCE) return program;
+        synchronized (programs) {
+            Cached previous = programs.put(key, new Cached(program, size, sha256));
+            if (previous != null) cachedSource -= previous.size;
+            cachedSource += size;
+            // Least recently used first.
+            Iterator<Cached> eldest = programs.values().iterator();
+            while (programs.size() > CAPACITY || cachedSource > MAX_CACHED_SOURCE) {
+                cachedSource -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+        return program;
+    }
+
+    private Program cached(Object key, int size, String sha256) {
+        synchronized (programs) {
+            Cached cached = programs.get(key);
+            if (cached == null) return null;
+            if (cached.size == size && cached.sha256.equals(sha256)) return cached.program;
+            // The file has changed since, so this is dropped whether or not what
+            // replaces it compiles.
+            programs.remove(key);
+            cachedSource -= cached.size;
+            return null;
+        }
+    }
+
+    private static ByteBuffer read(SocketChannel connection, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (connection.read(buffer) < 0) throw new EOFException();
+        }
+        return buffer.flip();
+    }
+
+    // The reply to one request. Output flushes whole buffers into append, each of
+    // which goes out as one frame.
+    private static final class Frames implements Appendable {
+        private final SocketChannel connection;
+
+        Frames(SocketChannel connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Appendable append(CharSequence text) throws IOException {
+            write(OUT, StandardCharsets.UTF_8.encode(CharBuffer.wrap(text)));
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence text, int start, int end) throws IOException {
+            return append(text.subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            return append(String.valueOf(c));
+        }
+
+        void err(String text) throws IOException {
+            write(ERR, StandardCharsets.UTF_8.encode(text));
+        }
+
+        void exit(int status) throws IOException {
+            write(EXIT, ByteBuffer.allocate(4).putInt(status).flip());
+        }
+
+        private void write(byte kind, ByteBuffer payload) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(5).put(kind).putInt(payload.remaining()).flip();
+            ByteBuffer[] frame = {header, payload};
+            while (payload.hasRemaining() || header.hasRemaining()) connection.write(frame);
+        }
+    }
+}
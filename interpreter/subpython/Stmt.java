@@ -24,16 +24,18 @@ abstract class Stmt {
     }
 
     static class Print extends Stmt {
-        final Expr expression;
+        final List<Expr> expressions;
 
-        Print(Expr expression) {
-            this.expression = expression;
+        Print(List<Expr> expressions) {
+            this.expressions = expressions;
         }
     }
 
     static class Assignment extends Stmt {
         final Token name;
         final Expr initializer;
+        int depth;
+        int slot;
 
         Assignment(Token name, Expr initializer) {
             this.name = name;
@@ -65,6 +67,8 @@ abstract class Stmt {
         final Expr end;
         final Expr step;
         final Stmt body;
+        int depth;
+        int slot;
 
         For(Token name, Expr start, Expr end, Expr step, Stmt body) {
             this.name = name;
@@ -79,6 +83,8 @@ abstract class Stmt {
         final Token name;
         final Expr iterable;
         final Stmt body;
+        int depth;
+        int slot;
 
         ForIterable(Token name, Expr iterable, Stmt body) {
             this.name = name;
@@ -91,20 +97,43 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        final int memo;
+        int depth;
+        int slot;
+        int localCount;
 
-        Function(Token name, List<Token> params, List<Stmt> body) {
+        Function(Token name, List<Token> params, List<Stmt> body, int memo) {
             this.name = name;
             this.params = params;
             this.body = body;
+            this.memo = memo;
         }
     }
 
     static class Return extends Stmt {
+        final Token keyword;
         final Expr value;
 
-        Return(Expr value) {
+        Return(Token keyword, Expr value) {
+            this.keyword = keyword;
             this.value = value;
         }
     }
 
+    static class Break extends Stmt {
+        final Token keyword;
+
+        Break(Token keyword) {
+            this.keyword = keyword;
+        }
+    }
+
+    static class Continue extends Stmt {
+        final Token keyword;
+
+        Continue(Token keyword) {
+            this.keyword = keyword;
+        }
+    }
+
 }
@@ -0,0 +1,53 @@
+package interpreter.subpython;
+
+// A slice of a string: its characters are read from the source string rather
+// than copied. The source never changes underneath it, since Strings are
+// immutable and a string buffer is marked shared when it is sliced.
+final class StringView implements CharSequence {
+    private final CharSequence source;
+    private final int start;
+    private final int step;
+    private final int length;
+    private String string; // toString(), built on first use
+
+    private StringView(CharSequence source, int start, int step, int length) {
+        this.source = source;
+        this.start = start;
+        this.step = step;
+        this.length = length;
+    }
+
+    // The `count` characters of `text` from `start`, `step` apart.
+    static StringView slice(CharSequence text, int start, int step, int count) {
+        if (text instanceof StringView view) {
+            return new StringView(view.source, view.start + start * view.step, view.step * step, count);
+        }
+        Operators.share(text);
+        return new StringView(text, start, step, count);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return source.charAt(start + index * step);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (string == null) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) chars[i] = charAt(i);
+            string = new String(chars);
+        }
+        return string;
+    }
+}
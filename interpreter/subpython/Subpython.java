@@ -1,37 +1,134 @@
 package interpreter.subpython;
 
 import java.io.BufferedReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Subpython {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
+    // Run on the original tree-walking interpreter instead of the bytecode VM.
+    private static boolean treeWalker = false;
+    // Compile the script to x86-64 assembly instead, and link and run it unless only
+    // the assembly was asked for.
+    private static boolean assemble = false;
+    private static boolean runNative = false;
+    // Debug mode: write every token to tokens.txt as the parser pulls it.
+    private static boolean dumpTokens = false;
+    // Reuse and write the parsed form of scripts in __pycache__.
+    private static boolean useCache = true;
+    // Profile the run on the tree-walker, report to stderr and write collapsed stacks.
+    private static boolean profile = false;
+    // Serve scripts to Client on this Unix domain socket instead of running one.
+    private static String socket = null;
+    // Errors are printed to stderr, after the output printed before them.
+    private static final Errors errors = new Errors(System.err, Output.STDOUT);
 
     public static void main(String[] args) throws IOException {
-        // if(args.length > 1){
-        //     System.err.println("Usage : subpython [script]");
-        //     System.exit(64);
-        // }
-        // else if(args.length == 1){
-        //     runFile(args[0]);
-        // }
-        // else{
-        //     runPrompt();
-        // }
-        runFile("test.py");
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--tree")) {
+                treeWalker = true;
+            } else if (arg.equals("--native") || arg.equals("--asm")) {
+                assemble = true;
+                runNative = arg.equals("--native");
+            } else if (arg.equals("--tokens")) {
+                dumpTokens = true;
+            } else if (arg.equals("--no-cache")) {
+                useCache = false;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+                treeWalker = true;
+            } else if (arg.startsWith("--serve=")) {
+                socket = arg.substring("--serve=".length());
+            } else if (arg.startsWith("--flush=")) {
+                Output.STDOUT.policy = switch (arg.substring("--flush=".length())) {
+                    case "exit" -> Output.EXIT;
+                    case "full" -> Output.FULL;
+                    case "line" -> Output.LINE;
+                    default -> {
+                        usage();
+                        yield Output.FULL;
+                    }
+                };
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+        if (socket != null) {
+            if (script != null || socket.isEmpty()) usage();
+            new Server(Paths.get(socket)).serve();
+            return;
+        }
+        if (assemble) {
+            if (script == null) usage();
+            compileNative(script);
+            return;
+        }
+        Profiler profiler = null;
+        if (profile) {
+            profiler = new Profiler();
+            interpreter = profiler.interpreter();
+            profiler.start();
+        }
+        interpreter.errors = errors;
+        vm.errors = errors;
+        if (script != null) {
+            runFile(script);
+        } else {
+            runPrompt();
+        }
+        if (profiler != null) {
+            profiler.stop();
+            profiler.report(System.err, Paths.get("profile.folded"));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage : subpython [--tree | --native | --asm] [--tokens] [--no-cache] [--flush=exit|full|line] [--profile] [--serve=socket] [script]");
+        System.exit(64);
     }
 
     private static void runFile(String path) throws IOException{
-        String content = Files.readString(Paths.get(path));
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
-        run(content);
+        List<Stmt> statements = load(Paths.get(path));
+        if(errors.hadError) System.exit(65);
+        if(errors.hadRuntimeError) System.exit(70);
+        execute(statements);
+    }
+
+    // The script's statements from its cache when the source is unchanged, otherwise
+    // parsed from the memory-mapped file and cached for next time.
+    private static List<Stmt> load(Path path) throws IOException {
+        Events.Parse event = Events.beginParse();
+        ByteBuffer source = Scanner.map(path);
+        List<Stmt> statements = null;
+        boolean cached = false;
+        if (useCache && !dumpTokens) {
+            byte[] hash = ScriptCache.hash(source);
+            statements = ScriptCache.load(path, hash);
+            cached = statements != null;
+            if (!cached) {
+                statements = parse(new Scanner(source, errors));
+                if (!errors.hadError) ScriptCache.store(path, hash, statements);
+            }
+        } else {
+            statements = parse(new Scanner(source, errors));
+        }
+        if (event != null) Events.endParse(event, path, cached, statements.size());
+        return statements;
     }
 
     private static void runPrompt() throws IOException {
@@ -42,52 +139,103 @@ public class Subpython {
             String line = reader.readLine();
             if (line == null) break;
             run(line);
-            hadError = false;
+            errors.clear();
         }
     }
 
     public static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        
-        // Write tokens to a file.
-        try (FileWriter fileWriter = new FileWriter("tokens.txt")) {
-            for (Token token : tokens) {
-                fileWriter.write(token.toString() + System.lineSeparator());
+        // Parse the statements, scanning tokens as the parser asks for them.
+        execute(parse(new Scanner(source, errors)));
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (errors.hadError) return;
+        Events.Execute event = Events.beginExecute();
+
+        // Give every variable its frame slot.
+        new Resolver(treeWalker ? interpreter.globalSlots : vm.globalSlots, errors).resolve(statements);
+        if (errors.hadError) return;
+        statements = new Optimizer().optimize(statements);
+
+        // Interpret the statements.
+        if (treeWalker) {
+            interpreter.interpreter(statements);
+        } else {
+            vm.interpreter(statements);
+        }
+        if (event != null) Events.endExecute(event, treeWalker ? "tree" : "vm");
+    }
+
+
+    private static List<Stmt> parse(Scanner scanner) {
+        if (!dumpTokens) return new Parser(scanner, errors).parse();
+
+        BufferedWriter writer;
+        try {
+            writer = Files.newBufferedWriter(Paths.get("tokens.txt"));
+        } catch (IOException ex) {
+            System.err.println("Error writing tokens to file: " + ex.getMessage());
+            return new Parser(scanner, errors).parse();
+        }
+        List<Stmt> statements = new Parser(() -> {
+            Token token = scanner.nextToken();
+            try {
+                writer.write(token.toString());
+                writer.newLine();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
+            return token;
+        }, errors).parse();
+        try {
+            writer.close();
         } catch (IOException ex) {
             System.err.println("Error writing tokens to file: " + ex.getMessage());
         }
-        
-        // Parse the tokens into statements.
-        List<Stmt> statements = new Parser(tokens).parse();
-        if (hadError) return;
-        
-        // Interpret the statements.
-        interpreter.interpreter(statements);
-
+        return statements;
     }
 
+    // Writes script.s next to the script and, for --native, links it with runtime.c
+    // into an executable and runs that.
+    private static void compileNative(String path) throws IOException {
+        List<Stmt> statements = load(Paths.get(path));
+        if (errors.hadError) System.exit(65);
+        Map<String, Integer> globals = new HashMap<>();
+        new Resolver(globals, errors).resolve(statements);
+        if (errors.hadError) System.exit(65);
+        statements = new Optimizer().optimize(statements);
+        String assembly = new AsmGenerator(errors).generate(statements, globals.size());
+        if (errors.hadError) System.exit(65);
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    private static void report(int line,String where,String message){
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-    }
+        String base = path.endsWith(".py") ? path.substring(0, path.length() - 3) : path + ".out";
+        Files.writeString(Paths.get(base + ".s"), assembly);
+        if (!runNative) return;
 
-    static void error(Token token, String message) {
-        hadError = true;
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+        Path runtime = Files.createTempFile("subpython-runtime", ".c");
+        try (InputStream source = Subpython.class.getResourceAsStream("runtime.c")) {
+            if (source == null) {
+                System.err.println("runtime.c is missing from the classpath.");
+                System.exit(70);
+            }
+            Files.copy(source, runtime, StandardCopyOption.REPLACE_EXISTING);
         }
+        // Exiting skips finally blocks, so the status waits until runtime.c is gone.
+        int status;
+        try {
+            status = execute("gcc", "-O2", "-o", base, base + ".s", runtime.toString(), "-lm");
+        } finally {
+            Files.deleteIfExists(runtime);
+        }
+        if (status == 0) status = execute(Paths.get(base).toAbsolutePath().toString());
+        System.exit(status);
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private static int execute(String... command) throws IOException {
+        try {
+            return new ProcessBuilder(command).inheritIO().start().waitFor();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 70;
+        }
     }
-}
\ No newline at end of file
+}
@@ -14,8 +14,14 @@ class Token{
         this.line = line;
     }
 
+    // The token as it was written. A string's lexeme is its contents, shared with
+    // its literal, so the quotes are put back here.
+    String source() {
+        return type == TokenType.STRING ? '"' + lexeme + '"' : lexeme;
+    }
+
     @Override
     public String toString(){
-        return "<" + type + "," + lexeme + "," + literal + ">";
+        return "<" + type + "," + source() + "," + literal + ">";
     }
 }
\ No newline at end of file
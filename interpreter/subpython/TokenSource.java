@@ -0,0 +1,14 @@
+package interpreter.subpython;
+
+import java.util.List;
+
+// Tokens pulled one at a time, so the Parser can consume the Scanner's output as it
+// is produced. Once EOF has been returned, every further call returns EOF again.
+interface TokenSource {
+    Token nextToken();
+
+    static TokenSource of(List<Token> tokens) {
+        int[] next = {0};
+        return () -> tokens.get(Math.min(next[0]++, tokens.size() - 1));
+    }
+}
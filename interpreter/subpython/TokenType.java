@@ -18,6 +18,7 @@ enum TokenType {
     MOD,           // '%'  - Modulus operator
     POW,           // '**' - Exponentiation operator
     COLON,         // ':'  - Starting a block
+    AT,            // '@'  - Starts a decorator
     INDENT,        // '->' - Indicates the start of an indented block
     DEDENT,        // '<-' - Indicates the end of an indented block
 
@@ -58,11 +59,15 @@ enum TokenType {
     FOR,           // 'for' - Starts a loop iterating over items
     IN,            // 'in' - Used to iterate over items in a collection
     RANGE,         // 'range' - Generates a sequence of numbers
+    LEN,           // 'len' - The length of a list, string or range
+    PMAP,          // 'pmap' - Maps a function over a list, string or range in parallel
     RETURN,        // 'return' - Exits a function and returns a value
     PRINT,         // 'print' - Outputs a value
     TRUE,          // 'True' - Boolean literal for true
     FALSE,         // 'False' - Boolean literal for false
     DEF,           // 'def' - Starts a function definition
+    BREAK,         // 'break' - Leaves the innermost loop
+    CONTINUE,      // 'continue' - Starts the next iteration of the innermost loop
 
     // End of file token.
     EOF            // Signifies the end of the input
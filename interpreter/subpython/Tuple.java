@@ -0,0 +1,101 @@
+package interpreter.subpython;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+// An immutable tuple value. Pairs and triples keep their elements in fields,
+// other sizes in an exact-size array. The hash is computed once, from the
+// elements as they are when it is first asked for, so tuples can be map keys.
+abstract class Tuple extends AbstractList<Object> implements RandomAccess {
+    private int hash;
+
+    static Tuple of(Object[] elements) {
+        return switch (elements.length) {
+            case 2 -> new Two(elements[0], elements[1]);
+            case 3 -> new Three(elements[0], elements[1], elements[2]);
+            default -> new Many(elements);
+        };
+    }
+
+    // A tuple only equals another tuple, never a list with the same elements.
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Tuple && super.equals(other);
+    }
+
+    // Offset from the hash of a list with the same elements.
+    @Override
+    public int hashCode() {
+        if (hash == 0) hash = 31 * super.hashCode() + 7;
+        return hash;
+    }
+
+    private static final class Two extends Tuple {
+        private final Object first;
+        private final Object second;
+
+        Two(Object first, Object second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public Object get(int index) {
+            return switch (index) {
+                case 0 -> first;
+                case 1 -> second;
+                default -> throw new IndexOutOfBoundsException(index);
+            };
+        }
+    }
+
+    private static final class Three extends Tuple {
+        private final Object first;
+        private final Object second;
+        private final Object third;
+
+        Three(Object first, Object second, Object third) {
+            this.first = first;
+            this.second = second;
+            this.third = third;
+        }
+
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public Object get(int index) {
+            return switch (index) {
+                case 0 -> first;
+                case 1 -> second;
+                case 2 -> third;
+                default -> throw new IndexOutOfBoundsException(index);
+            };
+        }
+    }
+
+    private static final class Many extends Tuple {
+        private final Object[] elements;
+
+        Many(Object[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+
+        @Override
+        public Object get(int index) {
+            return elements[index];
+        }
+    }
+}
@@ -0,0 +1,733 @@
+package interpreter.subpython;
+
+import static interpreter.subpython.Operators.*;
+import java.io.Serial;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+
+// Stack-based virtual machine running the bytecode produced by the Compiler.
+//
+// Stack and global slots are tagged: a slot holding INT or FLOAT keeps its
+// number unboxed in the parallel long[] (floats as raw bits), so arithmetic,
+// comparisons and counted loops on ints and floats never allocate. Values are
+// only boxed when they leave the VM, e.g. into a list; print writes them unboxed.
+class VM {
+    // Slot tags for unboxed numbers.
+    private static final Object INT = new Object();
+    private static final Object FLOAT = new Object();
+    // Jumps back and calls between two looks at the clock, for a run with a deadline.
+    private static final int DEADLINE_CHECK = 4096;
+
+    // Global name -> slot, filled in by the Resolver across REPL lines.
+    final Map<String, Integer> globalSlots = new HashMap<>();
+    private Object[] globals = new Object[0];
+    private long[] globalPrims = new long[0];
+    // Where print writes, and where a runtime error is reported.
+    Output output = Output.STDOUT;
+    Errors errors;
+
+    private Object[] stack = new Object[256];
+    private long[] prims = new long[256];
+    private int sp = 0;
+
+    // Saved state of the suspended callers.
+    private Function[] frameFunctions = new Function[64];
+    private int[] frameIps = new int[64];
+    private int[] frameBases = new int[64];
+    // Calls being timed for a recording; null where none is.
+    private Events.FunctionCall[] frameEvents = new Events.FunctionCall[64];
+    // Result cache keys of the memoized calls; null for other calls.
+    private Object[] frameMemoKeys = new Object[64];
+    private int frameCount = 0;
+    // What the function started by run() returned.
+    private Object returned;
+    // When a timed run stops with Expired, as System.nanoTime().
+    private boolean timed;
+    private long deadline;
+
+    public void interpreter(List<Stmt> statements) {
+        execute(new Compiler().compile(statements), globalSlots.size());
+    }
+
+    // Runs compiled top-level code that uses globalCount global slots.
+    void execute(Function script, int globalCount) {
+        reserveGlobals(globalCount);
+        try {
+            run(script, sp);
+        } catch (RuntimeError error) {
+            unwind();
+            errors.error(error.token, error.getMessage());
+        } finally {
+            output.flush();
+        }
+    }
+
+    // Stops the run with Expired once it has gone on for longer than timeout.
+    void deadline(Duration timeout) {
+        timed = true;
+        deadline = System.nanoTime() + timeout.toNanos();
+    }
+
+    // Drops the frames a runtime error left behind.
+    private void unwind() {
+        Arrays.fill(stack, null);
+        sp = 0;
+        frameCount = 0;
+        Arrays.fill(frameEvents, null);
+        Arrays.fill(frameMemoKeys, null);
+    }
+
+    // Sets a global ahead of a run, for the inputs of an embedded script.
+    void define(int slot, Object value) {
+        reserveGlobals(slot + 1);
+        if (value instanceof Long number) {
+            globals[slot] = INT;
+            globalPrims[slot] = number;
+        } else if (value instanceof Double number) {
+            globals[slot] = FLOAT;
+            globalPrims[slot] = Double.doubleToRawLongBits(number);
+        } else {
+            globals[slot] = value;
+        }
+    }
+
+    // The value of a global, boxed, or UNDEFINED before it is assigned.
+    Object global(int slot) {
+        if (slot >= globals.length) return UNDEFINED;
+        if (globals[slot] == INT) return globalPrims[slot];
+        if (globals[slot] == FLOAT) return Double.longBitsToDouble(globalPrims[slot]);
+        return globals[slot];
+    }
+
+    private void reserveGlobals(int count) {
+        if (globals.length < count) {
+            int previous = globals.length;
+            globals = Arrays.copyOf(globals, Math.max(count, previous * 2));
+            globalPrims = Arrays.copyOf(globalPrims, globals.length);
+            Arrays.fill(globals, previous, globals.length, UNDEFINED);
+        }
+    }
+
+    // Runs a function whose frame starts at base, which is the script's at the
+    // top level and a mapped function's in a pmap worker.
+    private void run(Function script, int base) {
+        Function function = script;
+        int[] code = script.chunk.code;
+        Object[] constants = script.chunk.pool;
+        int ip = 0;
+
+        // The arrays only grow on calls, which reserve each frame's stack up front,
+        // so the loop keeps them and the stack pointer in locals.
+        ensureCapacity(script.chunk.maxStack);
+        Object[] stack = this.stack;
+        long[] prims = this.prims;
+        int sp = this.sp;
+        int ticks = DEADLINE_CHECK;
+
+        for (;;) {
+            int op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT -> set(sp++, constants[code[ip++]]);
+                case OpCode.NONE -> set(sp++, null);
+                case OpCode.FUNCTION -> stack[sp++] = new Function((Function) constants[code[ip++]]);
+                case OpCode.TRUE -> set(sp++, true);
+                case OpCode.FALSE -> set(sp++, false);
+                case OpCode.POP -> stack[--sp] = null;
+
+                case OpCode.GET_LOCAL -> {
+                    int slot = base + code[ip++];
+                    if (stack[slot] == UNDEFINED) throw undefined(function, ip - 2);
+                    stack[sp] = share(stack[slot]);
+                    prims[sp++] = prims[slot];
+                }
+                case OpCode.SET_LOCAL -> {
+                    int slot = base + code[ip++];
+                    stack[slot] = stack[sp - 1];
+                    prims[slot] = prims[sp - 1];
+                }
+                case OpCode.GET_GLOBAL -> {
+                    int slot = code[ip++];
+                    if (globals[slot] == UNDEFINED) throw undefined(function, ip - 2);
+                    stack[sp] = share(globals[slot]);
+                    prims[sp++] = globalPrims[slot];
+                }
+                case OpCode.SET_GLOBAL -> {
+                    int slot = code[ip++];
+                    globals[slot] = stack[sp - 1];
+                    globalPrims[slot] = prims[sp - 1];
+                }
+                case OpCode.BORROW_LOCAL -> {
+                    int slot = base + code[ip++];
+                    if (stack[slot] == UNDEFINED) throw undefined(function, ip - 2);
+                    stack[sp] = stack[slot];
+                    prims[sp++] = prims[slot];
+                }
+                case OpCode.BORROW_GLOBAL -> {
+                    int slot = code[ip++];
+                    if (globals[slot] == UNDEFINED) throw undefined(function, ip - 2);
+                    stack[sp] = globals[slot];
+                    prims[sp++] = globalPrims[slot];
+                }
+                case OpCode.APPEND -> {
+                    int right = --sp;
+                    int left = sp - 1;
+                    boolean done;
+                    if (isString(stack[left])) {
+                        set(left, append(function.chunk.tokens[ip - 1], value(left), value(right)));
+                        done = true;
+                    } else if (stack[left] == INT && stack[right] == INT) {
+                        done = intArithmetic(OpCode.ADD, left, right);
+                    } else {
+                        done = isTagged(stack[left]) && isTagged(stack[right]) && floatArithmetic(OpCode.ADD, left, right);
+                    }
+                    if (!done) {
+                        set(left, binary(function.chunk.tokens[ip - 1], value(left), value(right)));
+                    }
+                    stack[right] = null;
+                }
+                case OpCode.STORE_LOCAL -> {
+                    int slot = base + code[ip++];
+                    stack[slot] = stack[--sp];
+                    prims[slot] = prims[sp];
+                    stack[sp] = null;
+                }
+                case OpCode.STORE_GLOBAL -> {
+                    int slot = code[ip++];
+                    globals[slot] = stack[--sp];
+                    globalPrims[slot] = prims[sp];
+                    stack[sp] = null;
+                }
+
+                case OpCode.ADD, OpCode.SUBTRACT, OpCode.MULTIPLY,
+                     OpCode.DIVIDE, OpCode.MODULO, OpCode.POWER -> {
+                    int right = --sp;
+                    int left = sp - 1;
+                    boolean done;
+                    if (stack[left] == INT && stack[right] == INT) {
+                        done = intArithmetic(op, left, right);
+                    } else {
+                        done = isTagged(stack[left]) && isTagged(stack[right]) && floatArithmetic(op, left, right);
+                    }
+                    if (!done) {
+                        set(left, binary(function.chunk.tokens[ip - 1], value(left), value(right)));
+                    }
+                    stack[right] = null;
+                }
+                case OpCode.GREATER, OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL -> {
+                    int right = --sp;
+                    int left = sp - 1;
+                    if (stack[left] == INT && stack[right] == INT) {
+                        long a = prims[left];
+                        long b = prims[right];
+                        stack[left] = switch (op) {
+                            case OpCode.GREATER -> a > b;
+                            case OpCode.GREATER_EQUAL -> a >= b;
+                            case OpCode.LESS -> a < b;
+                            default -> a <= b;
+                        };
+                    } else if (isTagged(stack[left]) && isTagged(stack[right])) {
+                        double a = asDouble(left);
+                        double b = asDouble(right);
+                        stack[left] = switch (op) {
+                            case OpCode.GREATER -> a > b;
+                            case OpCode.GREATER_EQUAL -> a >= b;
+                            case OpCode.LESS -> a < b;
+                            default -> a <= b;
+                        };
+                    } else {
+                        set(left, binary(function.chunk.tokens[ip - 1], value(left), value(right)));
+                    }
+                    stack[right] = null;
+                }
+                case OpCode.EQUAL, OpCode.NOT_EQUAL -> {
+                    int right = --sp;
+                    int left = sp - 1;
+                    boolean equal;
+                    if (stack[left] == INT && stack[right] == INT) {
+                        equal = prims[left] == prims[right];
+                    } else if (isTagged(stack[left]) && isTagged(stack[right])) {
+                        equal = asDouble(left) == asDouble(right);
+                    } else {
+                        equal = isEqual(value(left), value(right));
+                    }
+                    stack[left] = op == OpCode.EQUAL ? equal : !equal;
+                    stack[right] = null;
+                }
+                case OpCode.NEGATE -> {
+                    int top = sp - 1;
+                    if (stack[top] == INT && prims[top] != Long.MIN_VALUE) {
+                        prims[top] = -prims[top];
+                    } else if (stack[top] == FLOAT) {
+                        prims[top] ^= Long.MIN_VALUE;
+                    } else {
+                        set(top, unary(function.chunk.tokens[ip - 1], value(top)));
+                    }
+                }
+                case OpCode.NOT -> stack[sp - 1] = !truthy(sp - 1);
+
+                case OpCode.JUMP -> {
+                    // Every loop ends in a jump back, so one that never ends keeps coming here.
+                    ip = code[ip];
+                    if (--ticks == 0) {
+                        ticks = DEADLINE_CHECK;
+                        checkDeadline();
+                    }
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    boolean condition = truthy(--sp);
+                    stack[sp] = null;
+                    ip = condition ? ip + 1 : code[ip];
+                }
+                case OpCode.JUMP_IF_FALSE_OR_POP -> {
+                    if (truthy(sp - 1)) {
+                        stack[--sp] = null;
+                        ip++;
+                    } else {
+                        ip = code[ip];
+                    }
+                }
+                case OpCode.JUMP_IF_TRUE_OR_POP -> {
+                    if (truthy(sp - 1)) {
+                        ip = code[ip];
+                    } else {
+                        stack[--sp] = null;
+                        ip++;
+                    }
+                }
+                case OpCode.FOR_RANGE -> {
+                    int counter = sp - 3;
+                    if (stack[counter] != INT || stack[sp - 2] != INT || stack[sp - 1] != INT) {
+                        throw new RuntimeError(function.chunk.tokens[ip - 1], "Range arguments must be integers.");
+                    }
+                    long current = prims[counter];
+                    long end = prims[sp - 2];
+                    long step = prims[sp - 1];
+                    if (step == 0) {
+                        throw new RuntimeError(function.chunk.tokens[ip - 1], "Range step must not be zero.");
+                    }
+                    if (step > 0 ? current < end : current > end) {
+                        long next = current + step;
+                        // Stop instead of wrapping around on overflow.
+                        prims[counter] = ((current ^ next) & (step ^ next)) < 0 ? end : next;
+                        stack[sp] = INT;
+                        prims[sp++] = current;
+                        ip++;
+                    } else {
+                        ip = code[ip];
+                    }
+                }
+                case OpCode.GET_ITER -> {
+                    Object iterable = value(sp - 1);
+                    if (iterable instanceof Range range) {
+                        stack[sp - 1] = range.iterator();
+                    } else if (iterable instanceof List<?> list) {
+                        stack[sp - 1] = list.iterator();
+                    } else if (isString(iterable)) {
+                        stack[sp - 1] = ((CharSequence) iterable).chars().mapToObj(c -> character((char) c)).iterator();
+                    } else {
+                        throw new RuntimeError(function.chunk.tokens[ip - 1], "Only lists and strings can be iterated over.");
+                    }
+                }
+                case OpCode.FOR_ITER -> {
+                    Iterator<?> iterator = (Iterator<?>) stack[sp - 1];
+                    if (!iterator.hasNext()) {
+                        ip = code[ip];
+                    } else if (iterator instanceof PrimitiveIterator.OfLong ints) {
+                        stack[sp] = INT;
+                        prims[sp++] = ints.nextLong();
+                        ip++;
+                    } else {
+                        set(sp++, iterator.next());
+                        ip++;
+                    }
+                }
+
+                case OpCode.BUILD_LIST -> {
+                    int count = code[ip++];
+                    List<Object> elements = new ListValue(count);
+                    for (int i = sp - count; i < sp; i++) {
+                        elements.add(value(i));
+                        stack[i] = null;
+                    }
+                    sp -= count;
+                    set(sp++, elements);
+                }
+                case OpCode.BUILD_TUPLE -> {
+                    int count = code[ip++];
+                    Object[] elements = new Object[count];
+                    for (int i = 0; i < count; i++) {
+                        elements[i] = value(sp - count + i);
+                        stack[sp - count + i] = null;
+                    }
+                    sp -= count;
+                    set(sp++, Tuple.of(elements));
+                }
+                case OpCode.INDEX -> {
+                    int top = --sp;
+                    if (!primitiveIndex(top - 1, top)) {
+                        set(top - 1, index(function.chunk.tokens[ip - 1], value(top - 1), value(top), null, null));
+                    }
+                    stack[top] = null;
+                }
+                case OpCode.SLICE -> {
+                    sp -= 3;
+                    int value = sp - 1;
+                    set(value, index(function.chunk.tokens[ip - 1], value(value), value(sp), value(sp + 1), value(sp + 2)));
+                    Arrays.fill(stack, sp, sp + 3, null);
+                }
+                case OpCode.SET_INDEX -> {
+                    sp -= 2;
+                    int container = sp - 1;
+                    if (!primitiveSetIndex(container, sp, sp + 1)) {
+                        set(container, setIndex(function.chunk.tokens[ip - 1], value(container), value(sp), value(sp + 1)));
+                    }
+                    stack[sp] = stack[sp + 1] = null;
+                }
+
+                case OpCode.CALL -> {
+                    if (--ticks == 0) {
+                        ticks = DEADLINE_CHECK;
+                        checkDeadline();
+                    }
+                    int argCount = code[ip];
+                    Function[] targets = function.chunk.callTargets;
+                    int site = code[ip + 1];
+                    ip += 2;
+                    Object callee = stack[sp - 1 - argCount];
+                    // Same function as last time at this call site: already checked.
+                    Function called = targets[site];
+                    if (callee != called || called == null) {
+                        Token token = function.chunk.tokens[ip - 3];
+                        if (!(callee instanceof Function checked)) {
+                            throw new RuntimeError(token, "Can only call functions.");
+                        }
+                        if (checked.arity() != argCount) {
+                            throw new RuntimeError(token, "Expected " + checked.arity() + " arguments but got " + argCount + ".");
+                        }
+                        called = checked;
+                        targets[site] = checked;
+                    }
+                    // A memoized call looks its arguments up first, and on a hit
+                    // replaces itself with the result without entering the function.
+                    Object memoKey = null;
+                    if (called.memo != null) {
+                        Object[] arguments = new Object[argCount];
+                        for (int i = 0; i < argCount; i++) arguments[i] = value(sp - argCount + i);
+                        memoKey = Memo.key(arguments);
+                        if (memoKey == null) {
+                            called.memo.bypassed();
+                        } else {
+                            Object cached = called.memo.get(memoKey);
+                            if (cached != Memo.MISSING) {
+                                int slot = sp - 1 - argCount;
+                                Arrays.fill(stack, slot, sp, null);
+                                sp = slot;
+                                set(sp++, cached);
+                                continue;
+                            }
+                        }
+                    }
+                    if (frameCount == frameFunctions.length) {
+                        frameFunctions = Arrays.copyOf(frameFunctions, frameCount * 2);
+                        frameIps = Arrays.copyOf(frameIps, frameCount * 2);
+                        frameBases = Arrays.copyOf(frameBases, frameCount * 2);
+                        frameEvents = Arrays.copyOf(frameEvents, frameCount * 2);
+                        frameMemoKeys = Arrays.copyOf(frameMemoKeys, frameCount * 2);
+                    }
+                    frameFunctions[frameCount] = function;
+                    frameIps[frameCount] = ip;
+                    frameBases[frameCount] = base;
+                    frameEvents[frameCount] = Events.beginCall();
+                    frameMemoKeys[frameCount] = memoKey;
+                    frameCount++;
+
+                    function = called;
+                    code = called.chunk.code;
+                    constants = called.chunk.pool;
+                    ip = 0;
+                    base = sp - argCount;
+                    this.sp = sp;
+                    ensureCapacity(called.localCount - argCount + called.chunk.maxStack);
+                    stack = this.stack;
+                    prims = this.prims;
+                    Arrays.fill(stack, sp, base + called.localCount, UNDEFINED);
+                    sp = base + called.localCount;
+                }
+                case OpCode.RETURN -> {
+                    int result = sp - 1;
+                    if (frameCount == 0) {
+                        returned = value(result);
+                        Arrays.fill(stack, base, sp, null);
+                        this.sp = base;
+                        return;
+                    }
+                    Object memoKey = frameMemoKeys[frameCount - 1];
+                    if (memoKey != null) {
+                        frameMemoKeys[frameCount - 1] = null;
+                        function.memo.put(memoKey, value(result));
+                    }
+                    stack[base - 1] = stack[result];
+                    prims[base - 1] = prims[result];
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+
+                    frameCount--;
+                    Events.FunctionCall event = frameEvents[frameCount];
+                    if (event != null) {
+                        frameEvents[frameCount] = null;
+                        Events.endCall(event, function);
+                    }
+                    function = frameFunctions[frameCount];
+                    frameFunctions[frameCount] = null;
+                    code = function.chunk.code;
+                    constants = function.chunk.pool;
+                    ip = frameIps[frameCount];
+                    base = frameBases[frameCount];
+                }
+                case OpCode.CONTAINS -> {
+                    int right = --sp;
+                    int left = sp - 1;
+                    stack[left] = contains(function.chunk.tokens[ip - 1], value(left), value(right));
+                    stack[right] = null;
+                }
+                case OpCode.RANGE -> {
+                    sp -= 2;
+                    stack[sp - 1] = range(function.chunk.tokens[ip - 1], value(sp - 1), value(sp), value(sp + 1));
+                    stack[sp] = stack[sp + 1] = null;
+                }
+                case OpCode.LEN -> {
+                    prims[sp - 1] = length(function.chunk.tokens[ip - 1], value(sp - 1));
+                    stack[sp - 1] = INT;
+                }
+                case OpCode.PMAP -> {
+                    int right = --sp;
+                    int left = sp - 1;
+                    set(left, Parallel.map(function.chunk.tokens[ip - 1], value(left), value(right), this::fork));
+                    stack[right] = null;
+                }
+                case OpCode.PRINT -> {
+                    int count = code[ip++];
+                    sp -= count;
+                    for (int i = sp; i < sp + count; i++) {
+                        if (i > sp) output.write(' ');
+                        // Numbers are written from their unboxed slots.
+                        if (stack[i] == INT) {
+                            output.write(prims[i]);
+                        } else if (stack[i] == FLOAT) {
+                            writeFloat(output, Double.longBitsToDouble(prims[i]));
+                        } else {
+                            write(output, stack[i]);
+                        }
+                        stack[i] = null;
+                    }
+                    output.newline();
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + op);
+            }
+        }
+    }
+
+    // Fast paths for two INT slots. Returns false when the generic path has to
+    // take over: on overflow, division by zero or a power that may not fit.
+    private boolean intArithmetic(int op, int left, int right) {
+        long a = prims[left];
+        long b = prims[right];
+        switch (op) {
+            case OpCode.ADD -> {
+                long result = a + b;
+                if (((a ^ result) & (b ^ result)) < 0) return false;
+                prims[left] = result;
+            }
+            case OpCode.SUBTRACT -> {
+                long result = a - b;
+                if (((a ^ b) & (a ^ result)) < 0) return false;
+                prims[left] = result;
+            }
+            case OpCode.MULTIPLY -> {
+                long high = Math.multiplyHigh(a, b);
+                long result = a * b;
+                if (!((high == 0 && result >= 0) || (high == -1 && result < 0))) return false;
+                prims[left] = result;
+            }
+            case OpCode.DIVIDE -> {
+                if (b == 0) return false;
+                stack[left] = FLOAT;
+                prims[left] = Double.doubleToRawLongBits((double) a / (double) b);
+            }
+            case OpCode.MODULO -> {
+                if (b == 0) return false;
+                prims[left] = Math.floorMod(a, b);
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Fast paths for any mix of INT and FLOAT slots, producing a FLOAT.
+    private boolean floatArithmetic(int op, int left, int right) {
+        double a = asDouble(left);
+        double b = asDouble(right);
+        double result;
+        switch (op) {
+            case OpCode.ADD -> result = a + b;
+            case OpCode.SUBTRACT -> result = a - b;
+            case OpCode.MULTIPLY -> result = a * b;
+            case OpCode.DIVIDE -> {
+                if (b == 0) return false;
+                result = a / b;
+            }
+            case OpCode.MODULO -> {
+                if (b == 0) return false;
+                result = floorMod(a, b);
+            }
+            default -> {
+                return false;
+            }
+        }
+        stack[left] = FLOAT;
+        prims[left] = Double.doubleToRawLongBits(result);
+        return true;
+    }
+
+    // list[index] on an int or float list, leaving the element unboxed in the
+    // container's slot. Returns false for anything else, including bad indexes.
+    private boolean primitiveIndex(int container, int index) {
+        if (stack[index] != INT || !(stack[container] instanceof ListValue list)) return false;
+        long i = prims[index];
+        if (i < 0 || i >= list.size()) return false;
+        switch (list.strategy()) {
+            case ListValue.LONGS -> {
+                prims[container] = list.getLong((int) i);
+                stack[container] = INT;
+            }
+            case ListValue.DOUBLES -> {
+                prims[container] = Double.doubleToRawLongBits(list.getDouble((int) i));
+                stack[container] = FLOAT;
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // list[index] = value storing an unboxed int or float into a list of them.
+    private boolean primitiveSetIndex(int container, int index, int value) {
+        if (stack[index] != INT || !(stack[container] instanceof ListValue list)) return false;
+        long i = prims[index];
+        if (i < 0 || i >= list.size()) return false;
+        if (stack[value] == INT) return list.setLong((int) i, prims[value]);
+        if (stack[value] == FLOAT) return list.setDouble((int) i, Double.longBitsToDouble(prims[value]));
+        return false;
+    }
+
+    // Slot access
+
+    private static boolean isTagged(Object slot) {
+        return slot == INT || slot == FLOAT;
+    }
+
+    private double asDouble(int slot) {
+        return stack[slot] == INT ? (double) prims[slot] : Double.longBitsToDouble(prims[slot]);
+    }
+
+    private boolean truthy(int slot) {
+        Object value = stack[slot];
+        if (value == INT) return prims[slot] != 0;
+        if (value == FLOAT) return Double.longBitsToDouble(prims[slot]) != 0;
+        return isTruthy(value);
+    }
+
+    // Boxes the value of a stack slot.
+    private Object value(int slot) {
+        Object value = stack[slot];
+        if (value == INT) return prims[slot];
+        if (value == FLOAT) return Double.longBitsToDouble(prims[slot]);
+        return value;
+    }
+
+    // Stores a value into a stack slot, unboxing numbers.
+    private void set(int slot, Object value) {
+        if (value instanceof Long number) {
+            stack[slot] = INT;
+            prims[slot] = number;
+        } else if (value instanceof Double number) {
+            stack[slot] = FLOAT;
+            prims[slot] = Double.doubleToRawLongBits(number);
+        } else {
+            stack[slot] = value;
+        }
+    }
+
+    // A worker for pmap: a VM with a stack of its own that shares the globals,
+    // which the Resolver has made sure the mapped function only reads.
+    private Parallel.Worker fork() {
+        VM worker = new VM();
+        worker.globals = globals;
+        worker.globalPrims = globalPrims;
+        worker.timed = timed;
+        worker.deadline = deadline;
+        return worker::call;
+    }
+
+    private Object call(Function function, Object argument) {
+        ensureCapacity(function.localCount);
+        set(0, argument);
+        Arrays.fill(stack, 1, function.localCount, UNDEFINED);
+        sp = function.localCount;
+        run(function, 0);
+        return returned;
+    }
+
+    // Calls a function for an embedded script, with its arguments copied straight
+    // into the frame at the bottom of the stack. A runtime error unwinds the VM, so
+    // it is ready for the next call.
+    Object invoke(Function function, Object[] arguments) {
+        ensureCapacity(function.localCount);
+        for (int i = 0; i < arguments.length; i++) set(i, arguments[i]);
+        Arrays.fill(stack, arguments.length, function.localCount, UNDEFINED);
+        sp = function.localCount;
+        try {
+            run(function, 0);
+        } catch (RuntimeError error) {
+            unwind();
+            throw error;
+        }
+        return returned;
+    }
+
+    private void checkDeadline() {
+        if (timed && System.nanoTime() - deadline > 0) throw new Expired();
+    }
+
+    // Thrown out of a timed run that is past its deadline. Unlike a RuntimeError it
+    // has no token to report: the jump back that noticed has none.
+    static final class Expired extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Expired() {
+            super(null, null, false, false);
+        }
+    }
+
+    private void ensureCapacity(int slots) {
+        if (sp + slots > stack.length) {
+            int capacity = Math.max(stack.length * 2, sp + slots);
+            stack = Arrays.copyOf(stack, capacity);
+            prims = Arrays.copyOf(prims, capacity);
+        }
+    }
+
+    private RuntimeError undefined(Function function, int offset) {
+        Token name = function.chunk.tokens[offset];
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+}
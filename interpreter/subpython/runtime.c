@@ -0,0 +1,450 @@
+// Runtime support for programs compiled to x86-64 by AsmGenerator.
+//
+// Every value is one machine word. An odd word is an int shifted left by one
+// (so native ints are 63-bit); an even word points to a heap object whose first
+// field is its tag. The generated code handles int arithmetic and comparisons
+// inline and calls into this file for everything else. Objects are never freed.
+
+#include <math.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+typedef intptr_t value;
+
+enum { TAG_NONE = 1, TAG_BOOL, TAG_FLOAT, TAG_STR, TAG_LIST, TAG_FUNC, TAG_ITER };
+
+// Operator numbers shared with AsmGenerator.
+enum { OP_ADD, OP_SUB, OP_MUL, OP_DIV, OP_MOD, OP_POW,
+       OP_EQ, OP_NE, OP_GT, OP_GE, OP_LT, OP_LE, OP_NEG, OP_NOT };
+
+typedef struct { long tag; } object;
+typedef struct { long tag; long truth; } boolean;
+typedef struct { long tag; double value; } flt;
+typedef struct { long tag; long length; char chars[]; } string;
+typedef struct { long tag; long length; long capacity; value *items; } list;
+typedef struct { long tag; long arity; void *code; const char *name; } function;
+typedef struct { long tag; value source; long next; } iterator;
+
+object sp_none = { TAG_NONE };
+boolean sp_true = { TAG_BOOL, 1 };
+boolean sp_false = { TAG_BOOL, 0 };
+
+#define IS_INT(v) ((v) & 1)
+#define INT_VALUE(v) ((v) >> 1)
+#define TAG(v) (((object *) (v))->tag)
+#define MAX_INT (INT64_MAX >> 1)
+#define MIN_INT (INT64_MIN >> 1)
+
+static void fail(long line, const char *message) {
+    fflush(stdout);
+    fprintf(stderr, "[line %ld] Error: %s\n", line, message);
+    exit(70);
+}
+
+static value make_int(long i, long line) {
+    if (i > MAX_INT || i < MIN_INT) fail(line, "Integer overflow (native ints are 63-bit).");
+    return (value) (((uint64_t) i << 1) | 1);
+}
+
+static value make_bool(int truth) {
+    return (value) (truth ? &sp_true : &sp_false);
+}
+
+static value make_float(double d) {
+    flt *f = malloc(sizeof(flt));
+    f->tag = TAG_FLOAT;
+    f->value = d;
+    return (value) f;
+}
+
+static string *new_string(long length) {
+    string *s = malloc(sizeof(string) + length + 1);
+    s->tag = TAG_STR;
+    s->length = length;
+    s->chars[length] = '\0';
+    return s;
+}
+
+static list *new_list(long capacity) {
+    list *l = malloc(sizeof(list));
+    l->tag = TAG_LIST;
+    l->length = 0;
+    l->capacity = capacity > 4 ? capacity : 4;
+    l->items = malloc(sizeof(value) * l->capacity);
+    return l;
+}
+
+static void append(list *l, value item) {
+    if (l->length == l->capacity) {
+        l->capacity *= 2;
+        l->items = realloc(l->items, sizeof(value) * l->capacity);
+    }
+    l->items[l->length++] = item;
+}
+
+static int is_number(value v) {
+    return IS_INT(v) || TAG(v) == TAG_FLOAT;
+}
+
+static double to_double(value v) {
+    return IS_INT(v) ? (double) INT_VALUE(v) : ((flt *) v)->value;
+}
+
+// Formatting, following Operators.stringify
+
+typedef struct { char *chars; long length; long capacity; } buffer;
+
+static void put(buffer *b, const char *text, long length) {
+    if (b->length + length + 1 > b->capacity) {
+        while (b->length + length + 1 > b->capacity) b->capacity = b->capacity ? b->capacity * 2 : 64;
+        b->chars = realloc(b->chars, b->capacity);
+    }
+    memcpy(b->chars + b->length, text, length);
+    b->length += length;
+    b->chars[b->length] = '\0';
+}
+
+// Same digits and layout as Java's Double.toString for non-integral values.
+static void format_float(double d, char *out) {
+    if (isnan(d)) { strcpy(out, "NaN"); return; }
+    if (isinf(d)) { strcpy(out, d > 0 ? "Infinity" : "-Infinity"); return; }
+    if (d == rint(d) && fabs(d) < 1e16) { sprintf(out, "%lld.0", (long long) d); return; }
+
+    char scientific[40];
+    for (int precision = 1; precision <= 17; precision++) {
+        sprintf(scientific, "%.*e", precision - 1, d);
+        if (strtod(scientific, NULL) == d) break;
+    }
+    char digits[24];
+    int count = 0;
+    char *p = scientific;
+    if (*p == '-') p++;
+    for (; *p != 'e'; p++) {
+        if (*p != '.') digits[count++] = *p;
+    }
+    digits[count] = '\0';
+    int exponent = atoi(p + 1);
+
+    char *o = out;
+    if (d < 0) *o++ = '-';
+    double magnitude = fabs(d);
+    if (magnitude >= 1e-3 && magnitude < 1e7) {
+        if (exponent < 0) {
+            *o++ = '0';
+            *o++ = '.';
+            for (int i = -1; i > exponent; i--) *o++ = '0';
+            for (int i = 0; i < count; i++) *o++ = digits[i];
+        } else {
+            for (int i = 0; i <= exponent; i++) *o++ = i < count ? digits[i] : '0';
+            *o++ = '.';
+            if (exponent + 1 >= count) *o++ = '0';
+            for (int i = exponent + 1; i < count; i++) *o++ = digits[i];
+        }
+        *o = '\0';
+    } else {
+        *o++ = digits[0];
+        *o++ = '.';
+        if (count == 1) *o++ = '0';
+        for (int i = 1; i < count; i++) *o++ = digits[i];
+        sprintf(o, "E%d", exponent);
+    }
+}
+
+static void stringify(buffer *b, value v) {
+    char text[64];
+    if (IS_INT(v)) {
+        sprintf(text, "%ld", INT_VALUE(v));
+        put(b, text, strlen(text));
+        return;
+    }
+    switch (TAG(v)) {
+        case TAG_NONE: put(b, "None", 4); break;
+        case TAG_BOOL: put(b, v == (value) &sp_true ? "true" : "false", v == (value) &sp_true ? 4 : 5); break;
+        case TAG_FLOAT:
+            format_float(((flt *) v)->value, text);
+            put(b, text, strlen(text));
+            break;
+        case TAG_STR: put(b, ((string *) v)->chars, ((string *) v)->length); break;
+        case TAG_LIST: {
+            list *l = (list *) v;
+            put(b, "[", 1);
+            for (long i = 0; i < l->length; i++) {
+                if (i > 0) put(b, ", ", 2);
+                stringify(b, l->items[i]);
+            }
+            put(b, "]", 1);
+            break;
+        }
+        case TAG_FUNC:
+            put(b, "<fn ", 4);
+            put(b, ((function *) v)->name, strlen(((function *) v)->name));
+            put(b, ">", 1);
+            break;
+        default: put(b, "<object>", 8);
+    }
+}
+
+static value concat(value left, value right) {
+    buffer b = { 0 };
+    stringify(&b, left);
+    stringify(&b, right);
+    string *s = new_string(b.length);
+    memcpy(s->chars, b.chars, b.length);
+    free(b.chars);
+    return (value) s;
+}
+
+// Prints a value followed by the space or newline after it.
+void sp_print(value v, long separator) {
+    buffer b = { 0 };
+    stringify(&b, v);
+    char end = (char) separator;
+    put(&b, &end, 1);
+    fwrite(b.chars, 1, b.length, stdout);
+    free(b.chars);
+}
+
+// Truthiness and equality
+
+long sp_truthy(value v) {
+    if (IS_INT(v)) return INT_VALUE(v) != 0;
+    switch (TAG(v)) {
+        case TAG_NONE: return 0;
+        case TAG_BOOL: return ((boolean *) v)->truth;
+        case TAG_FLOAT: return ((flt *) v)->value != 0;
+        default: return 1;
+    }
+}
+
+static int equal(value a, value b) {
+    if (a == b) return 1;
+    if (is_number(a) && is_number(b)) return to_double(a) == to_double(b);
+    if (IS_INT(a) || IS_INT(b) || TAG(a) != TAG(b)) return 0;
+    if (TAG(a) == TAG_STR) {
+        string *x = (string *) a, *y = (string *) b;
+        return x->length == y->length && memcmp(x->chars, y->chars, x->length) == 0;
+    }
+    if (TAG(a) == TAG_LIST) {
+        list *x = (list *) a, *y = (list *) b;
+        if (x->length != y->length) return 0;
+        for (long i = 0; i < x->length; i++) {
+            if (!equal(x->items[i], y->items[i])) return 0;
+        }
+        return 1;
+    }
+    return 0;
+}
+
+// Operators
+
+static double floor_mod(double left, double right) {
+    double result = fmod(left, right);
+    if (result != 0 && (result < 0) != (right < 0)) result += right;
+    return result;
+}
+
+static value int_arithmetic(long op, long a, long b, long line) {
+    long result;
+    switch (op) {
+        case OP_ADD: return make_int(a + b, line);
+        case OP_SUB: return make_int(a - b, line);
+        case OP_MUL:
+            if (__builtin_mul_overflow(a, b, &result)) fail(line, "Integer overflow (native ints are 63-bit).");
+            return make_int(result, line);
+        case OP_DIV:
+            if (b == 0) fail(line, "Division by zero.");
+            return make_float((double) a / (double) b);
+        case OP_MOD:
+            if (b == 0) fail(line, "Division by zero.");
+            result = a % b;
+            if (result != 0 && (result < 0) != (b < 0)) result += b;
+            return make_int(result, line);
+        case OP_POW:
+            if (b < 0) return make_float(pow((double) a, (double) b));
+            result = 1;
+            while (b-- > 0) {
+                if (__builtin_mul_overflow(result, a, &result)) fail(line, "Integer overflow (native ints are 63-bit).");
+            }
+            return make_int(result, line);
+    }
+    return (value) &sp_none;
+}
+
+static value float_arithmetic(long op, double a, double b, long line) {
+    switch (op) {
+        case OP_ADD: return make_float(a + b);
+        case OP_SUB: return make_float(a - b);
+        case OP_MUL: return make_float(a * b);
+        case OP_DIV:
+            if (b == 0) fail(line, "Division by zero.");
+            return make_float(a / b);
+        case OP_MOD:
+            if (b == 0) fail(line, "Division by zero.");
+            return make_float(floor_mod(a, b));
+        case OP_POW: return make_float(pow(a, b));
+    }
+    return (value) &sp_none;
+}
+
+value sp_binary(long op, value a, value b, long line) {
+    switch (op) {
+        case OP_EQ: return make_bool(equal(a, b));
+        case OP_NE: return make_bool(!equal(a, b));
+        case OP_GT: case OP_GE: case OP_LT: case OP_LE: {
+            if (!is_number(a) || !is_number(b)) fail(line, "Operands must be numbers.");
+            double x = to_double(a), y = to_double(b);
+            if (IS_INT(a) && IS_INT(b)) {
+                long i = INT_VALUE(a), j = INT_VALUE(b);
+                return make_bool(op == OP_GT ? i > j : op == OP_GE ? i >= j : op == OP_LT ? i < j : i <= j);
+            }
+            return make_bool(op == OP_GT ? x > y : op == OP_GE ? x >= y : op == OP_LT ? x < y : x <= y);
+        }
+    }
+    if (is_number(a) && is_number(b)) {
+        if (IS_INT(a) && IS_INT(b)) return int_arithmetic(op, INT_VALUE(a), INT_VALUE(b), line);
+        return float_arithmetic(op, to_double(a), to_double(b), line);
+    }
+    if (op == OP_ADD) {
+        int a_text = !IS_INT(a) && TAG(a) == TAG_STR;
+        int b_text = !IS_INT(b) && TAG(b) == TAG_STR;
+        if ((a_text && (b_text || is_number(b))) || (b_text && is_number(a))) return concat(a, b);
+        fail(line, "Operands must be two numbers or two strings.");
+    }
+    fail(line, "Operands must be numbers.");
+    return 0;
+}
+
+value sp_unary(long op, value a, long line) {
+    if (op == OP_NOT) return make_bool(!sp_truthy(a));
+    if (IS_INT(a)) return make_int(-INT_VALUE(a), line);
+    if (TAG(a) == TAG_FLOAT) return make_float(-((flt *) a)->value);
+    fail(line, "Operand must be a number.");
+    return 0;
+}
+
+// Collections, following Operators.index and Operators.setIndex
+
+// The generated code pushes the elements left to right, so items[0] is the last one.
+value sp_list(long count, value *items) {
+    list *l = new_list(count);
+    for (long i = count - 1; i >= 0; i--) append(l, items[i]);
+    return (value) l;
+}
+
+static int is_list(value v) { return !IS_INT(v) && TAG(v) == TAG_LIST; }
+static int is_string(value v) { return !IS_INT(v) && TAG(v) == TAG_STR; }
+
+static value char_at(string *s, long i) {
+    string *c = new_string(1);
+    c->chars[0] = s->chars[i];
+    return (value) c;
+}
+
+value sp_slice(value v, value start, value end, value step, long line) {
+    if (!is_list(v) && !is_string(v)) fail(line, "Only lists and strings can be indexed.");
+    if (step == (value) &sp_none) step = make_int(1, line);
+    if (!IS_INT(start) || (end != 0 && !IS_INT(end)) || !IS_INT(step)) {
+        fail(line, "Start, end, and step values must be integers.");
+    }
+    long from = INT_VALUE(start);
+    long to = end == 0 ? from + 1 : INT_VALUE(end);
+    long by = INT_VALUE(step);
+    if (by <= 0) fail(line, "Slice step must be positive.");
+
+    long size = is_list(v) ? ((list *) v)->length : ((string *) v)->length;
+    if (from < 0 || from >= size || to > size) fail(line, "Index out of bounds.");
+    if (is_list(v)) {
+        list *source = (list *) v;
+        list *result = new_list(0);
+        for (long i = from; i < to; i += by) append(result, source->items[i]);
+        if (result->length == 1) return result->items[0];
+        return (value) result;
+    }
+    string *source = (string *) v;
+    buffer b = { 0 };
+    for (long i = from; i < to; i += by) put(&b, source->chars + i, 1);
+    string *result = new_string(b.length);
+    memcpy(result->chars, b.chars, b.length);
+    free(b.chars);
+    return (value) result;
+}
+
+value sp_index(value v, value index, long line) {
+    if (is_string(v) && IS_INT(index)) {
+        string *s = (string *) v;
+        long i = INT_VALUE(index);
+        if (i < 0 || i >= s->length) fail(line, "Index out of bounds.");
+        return char_at(s, i);
+    }
+    return sp_slice(v, index, 0, (value) &sp_none, line);
+}
+
+value sp_set_index(value container, value index, value item, long line) {
+    if (is_list(container)) {
+        if (!IS_INT(index)) fail(line, "Index must be an integer.");
+        list *l = (list *) container;
+        long i = INT_VALUE(index);
+        if (i < 0 || i >= l->length) fail(line, "Index out of bounds.");
+        l->items[i] = item;
+        return container;
+    }
+    if (is_string(container)) {
+        if (!is_string(item) || ((string *) item)->length != 1) {
+            fail(line, "Assignment to string index must be a single character.");
+        }
+        if (!IS_INT(index)) fail(line, "Index must be an integer.");
+        string *s = (string *) container;
+        long i = INT_VALUE(index);
+        if (i < 0 || i >= s->length) fail(line, "Index out of bounds.");
+        string *result = new_string(s->length);
+        memcpy(result->chars, s->chars, s->length);
+        result->chars[i] = ((string *) item)->chars[0];
+        return (value) result;
+    }
+    fail(line, "Only lists and strings support index assignment.");
+    return 0;
+}
+
+// Loops
+
+value sp_iter(value iterable, long line) {
+    if (!is_list(iterable) && !is_string(iterable)) fail(line, "Only lists and strings can be iterated over.");
+    iterator *it = malloc(sizeof(iterator));
+    it->tag = TAG_ITER;
+    it->source = iterable;
+    it->next = 0;
+    return (value) it;
+}
+
+// Returns 0 once the iterator is exhausted.
+value sp_next(value v) {
+    iterator *it = (iterator *) v;
+    if (is_list(it->source)) {
+        list *l = (list *) it->source;
+        return it->next < l->length ? l->items[it->next++] : 0;
+    }
+    string *s = (string *) it->source;
+    return it->next < s->length ? char_at(s, it->next++) : 0;
+}
+
+void sp_range_check(value start, value end, value step, long line) {
+    if (!IS_INT(start) || !IS_INT(end) || !IS_INT(step)) fail(line, "Range arguments must be integers.");
+    if (INT_VALUE(step) == 0) fail(line, "Range step must not be zero.");
+}
+
+// Errors raised from generated code
+
+void sp_undefined(const char *name, long line) {
+    char message[256];
+    snprintf(message, sizeof(message), "Undefined variable '%s'.", name);
+    fail(line, message);
+}
+
+void sp_call_error(value callee, long argCount, long line) {
+    if (IS_INT(callee) || TAG(callee) != TAG_FUNC) fail(line, "Can only call functions.");
+    char message[128];
+    snprintf(message, sizeof(message), "Expected %ld arguments but got %ld.", ((function *) callee)->arity, argCount);
+    fail(line, message);
+}
@@ -0,0 +1,14 @@
+# Must fail to resolve: f writes to the global list through a local alias, so
+# pmap can't run it in parallel.
+#   [line 13] Error at 'f': Can't run 'f' in parallel because 'f' assigns an
+#   element of 'l', which may not be its own.
+
+g = [0, 0, 0]
+
+def f(x):
+    l = g
+    l[x] = x
+    return x
+
+print(pmap(f, [0, 1, 2]))
+print(g)
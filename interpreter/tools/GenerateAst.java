@@ -14,30 +14,33 @@ public class GenerateAst {
         String baseName = args[0];
         String outputDir = args[1];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Binary   : Expr left, Token operator, Expr right",
+            "Binary   : Expr left, Token operator, Expr right ; int state",
             "Grouping : Expr expression",
-            "Literal  : Object value",
+            "Literal  : Object value, Token token",
             "Unary    : Token operator, Expr right",
-            "Assignment   : Token name, Expr value, Expr index",
-            "Variable : Token name",
+            "Assignment   : Token name, Expr value, Expr index ; int depth, int slot",
+            "Variable : Token name ; int depth, int slot",
             "Logical  : Expr left, Token operator, Expr right",
             "List_     : List<Expr> elements",
             "Tuple_    : List<Expr> elements",
-            "Index    : Token identifier, Expr start, Expr end, Expr step",
-            "Call     : Token identifier, List<Expr> arguments"
+            "Index    : Token identifier, Expr start, Expr end, Expr step ; int depth, int slot",
+            "Call     : Token identifier, List<Expr> arguments ; int depth, int slot, Function target",
+            "Builtin  : Token name, List<Expr> arguments"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
             "Expression : Expr expression",
             "If         : List<Expr> condition, List<Stmt> thenBranch, Stmt elseBranch",
-            "Print      : Expr expression",
-            "Assignment : Token name, Expr initializer",
+            "Print      : List<Expr> expressions",
+            "Assignment : Token name, Expr initializer ; int depth, int slot",
             "Block      : List<Stmt> statements",
             "While      : Expr condition, Stmt body",
-            "For        : Token name, Expr start, Expr end, Expr step, Stmt body",
-            "ForIterable : Token name, Expr iterable, Stmt body",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
-            "Return     : Expr value"
+            "For        : Token name, Expr start, Expr end, Expr step, Stmt body ; int depth, int slot",
+            "ForIterable : Token name, Expr iterable, Stmt body ; int depth, int slot",
+            "Function   : Token name, List<Token> params, List<Stmt> body, int memo ; int depth, int slot, int localCount",
+            "Return     : Token keyword, Expr value",
+            "Break      : Token keyword",
+            "Continue   : Token keyword"
         ));
     }
 
@@ -54,14 +57,20 @@ public class GenerateAst {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            // Fields after ';' are filled in by later passes, not the constructor.
+            String annotations = null;
+            if (fields.contains(";")) {
+                annotations = fields.split(";")[1].trim();
+                fields = fields.split(";")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, annotations);
         }
 
         writer.println("}");
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String annotationList) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         // Fields
@@ -69,6 +78,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("        final " + field + ";");
         }
+        if (annotationList != null) {
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("        " + annotation + ";");
+            }
+        }
 
         // Constructor
         writer.println();